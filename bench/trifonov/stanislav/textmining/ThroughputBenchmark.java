@@ -0,0 +1,229 @@
+package trifonov.stanislav.textmining;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import trifonov.stanislav.ml.ClusteringKMeansModel;
+import trifonov.stanislav.ml.GradientBoostedTreesModel;
+import trifonov.stanislav.ml.IMLModel;
+import trifonov.stanislav.ml.NormalEquationsRegressionModel;
+import trifonov.stanislav.ml.RegressionModel;
+import trifonov.stanislav.textmining.bench.SyntheticData;
+import trifonov.stanislav.textmining.metrics.LatencyHistogram;
+import trifonov.stanislav.textmining.metrics.Metrics;
+
+/**
+ * Pairs per second of the whole {@link PIT2015#predictAndExport(File, File)} path - reading the data,
+ * extracting the features, estimating and writing the output - for data files of several sizes and
+ * several {@link PIT2015#setTopicPartitioning(int) feature extraction threads}.
+ *
+ * Everything is generated offline with {@link SyntheticData}: a word2vec file, a training file for the model
+ * and a data file per size. Every run starts from a fresh {@link PIT2015} with the model loaded from a file
+ * and the vectors of the data file's words loaded (not timed), so no run benefits from the caches of another.
+ * The per stage latencies of every run come from the {@link Metrics}.
+ *
+ * Arguments: <code>[--sizes 1000,5000,20000] [--threads 0,1,2,4] [--repeats 3] [--train 2000]
+ * [--pairs-per-topic 25] [--model normeq|regr|gbt|kmeans] [--dir work dir] [--report throughput.json]</code>
+ * <br>0 threads extract the features one pair after another, in file order.
+ */
+public class ThroughputBenchmark {
+
+	private static final long SEED = 2015;
+	private static final int VOCABULARY_SIZE = 20000;
+	private static final int LAYER_SIZE = 300;
+
+	private static class Run {
+		final int _size;
+		final int _threads;
+		final int _repeat;
+		final long _loadMillis;
+		final double _seconds;
+		final LatencyHistogram.Snapshot _features;
+		final LatencyHistogram.Snapshot _estimate;
+		final LatencyHistogram.Snapshot _write;
+
+		Run(int size, int threads, int repeat, long loadMillis, double seconds) {
+			_size = size;
+			_threads = threads;
+			_repeat = repeat;
+			_loadMillis = loadMillis;
+			_seconds = seconds;
+			_features = Metrics.latency("features").snapshot();
+			_estimate = Metrics.latency("estimate").snapshot();
+			_write = Metrics.latency("write").snapshot();
+		}
+
+		double pairsPerSecond() {
+			return _size / _seconds;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int sizes[] = { 1000, 5000, 20000 };
+		int threads[] = { 0, 1, 2, 4 };
+		int repeats = 3;
+		int trainingSize = 2000;
+		int pairsPerTopic = 25;
+		String modelName = "normeq";
+		File dir = null;
+		File reportFile = new File("throughput.json");
+
+		for(int i=0; i+1<args.length; i+=2) {
+			if( "--sizes".equals(args[i]) )
+				sizes = parseInts(args[i+1]);
+			else if( "--threads".equals(args[i]) )
+				threads = parseInts(args[i+1]);
+			else if( "--repeats".equals(args[i]) )
+				repeats = Integer.parseInt(args[i+1]);
+			else if( "--train".equals(args[i]) )
+				trainingSize = Integer.parseInt(args[i+1]);
+			else if( "--pairs-per-topic".equals(args[i]) )
+				pairsPerTopic = Integer.parseInt(args[i+1]);
+			else if( "--model".equals(args[i]) )
+				modelName = args[i+1];
+			else if( "--dir".equals(args[i]) )
+				dir = new File(args[i+1]);
+			else if( "--report".equals(args[i]) )
+				reportFile = new File(args[i+1]);
+			else
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+
+		Map<String, Supplier<IMLModel>> models = new LinkedHashMap<String, Supplier<IMLModel>>();
+		models.put( "normeq", () -> new NormalEquationsRegressionModel(1e-6) );
+		models.put( "regr", () -> new RegressionModel() );
+		models.put( "gbt", () -> new GradientBoostedTreesModel() );
+		models.put( "kmeans", () -> new ClusteringKMeansModel(4, 1.1) );
+		if( !models.containsKey(modelName) )
+			throw new IllegalArgumentException("Unknown model " + modelName + ", one of " + models.keySet());
+
+		if(dir == null)
+			dir = Files.createTempDirectory("pit-throughput").toFile();
+		dir.mkdirs();
+
+		long start = System.currentTimeMillis();
+		SyntheticData data = new SyntheticData(SEED, VOCABULARY_SIZE);
+		File word2vecFile = new File(dir, "word2vec.bin");
+		SyntheticData.writeWord2Vec(data.vectors(LAYER_SIZE), LAYER_SIZE, word2vecFile);
+		File trainFile = new File(dir, "train.data");
+		data.writePitData(trainFile, trainingSize, pairsPerTopic);
+		File dataFiles[] = new File[sizes.length];
+		for(int s=0; s<sizes.length; ++s) {
+			dataFiles[s] = new File(dir, "data-" + sizes[s] + ".data");
+			data.writePitData(dataFiles[s], sizes[s], pairsPerTopic);
+		}
+
+		File modelFile = new File(dir, modelName + ".model");
+		PIT2015 trainer = new PIT2015();
+		trainer.initW2VModel(trainFile, word2vecFile);
+		trainer.setModel( models.get(modelName).get() );
+		trainer.trainWithDataFile(trainFile);
+		trainer.saveModel(modelFile);
+		System.out.println("Generated the data and trained " + modelName + " in " + dir + " in "
+				+ (System.currentTimeMillis()-start) + "ms.");
+
+		Metrics.setEnabled(true);
+		List<Run> runs = new ArrayList<Run>();
+		File outputFile = new File(dir, "output");
+		for(int s=0; s<sizes.length; ++s) {
+			for(int threadsCount : threads) {
+				for(int repeat=0; repeat<repeats; ++repeat) {
+					long loadStart = System.currentTimeMillis();
+					PIT2015 pit2015 = new PIT2015();
+					pit2015.initW2VModel(dataFiles[s], word2vecFile);
+					pit2015.loadModel(modelFile);
+					pit2015.setTopicPartitioning(threadsCount);
+					long loadMillis = System.currentTimeMillis() - loadStart;
+
+					Metrics.reset();
+					long runStart = System.nanoTime();
+					pit2015.predictAndExport(dataFiles[s], outputFile);
+					Run run = new Run(sizes[s], threadsCount, repeat, loadMillis, (System.nanoTime() - runStart) / 1e9);
+					runs.add(run);
+					System.out.println( String.format(Locale.US,
+							"%8d pairs  %2d threads  #%d  %8.0f pairs/s  features p50 %7.1fus p99 %7.1fus",
+							run._size, run._threads, run._repeat, run.pairsPerSecond(),
+							run._features.getValueAtPercentile(50) / 1e3, run._features.getValueAtPercentile(99) / 1e3) );
+				}
+			}
+		}
+
+		writeReport(reportFile, runs, modelName, pairsPerTopic);
+		System.out.println("Report written to " + reportFile.getAbsolutePath());
+	}
+
+	/**
+	 * One JSON object: the environment, every run and, per size and threads count, the median pairs per second
+	 */
+	private static void writeReport(File reportFile, List<Run> runs, String modelName, int pairsPerTopic) throws IOException {
+		Writer out = null;
+		try {
+			out = new BufferedWriter( new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8) );
+			out.write( String.format(Locale.US,
+					"{\"model\":\"%s\",\"pairsPerTopic\":%d,\"processors\":%d,\"java\":\"%s\",\"os\":\"%s\",\n\"runs\":[",
+					modelName, pairsPerTopic, Runtime.getRuntime().availableProcessors(),
+					System.getProperty("java.version"), System.getProperty("os.name") + " " + System.getProperty("os.arch")) );
+			for(int i=0; i<runs.size(); ++i) {
+				Run run = runs.get(i);
+				out.write(i == 0 ? "\n" : ",\n");
+				out.write( String.format(Locale.US,
+						"{\"size\":%d,\"threads\":%d,\"repeat\":%d,\"loadMillis\":%d,\"seconds\":%.4f,\"pairsPerSecond\":%.1f,"
+						+ "\"featuresNanos\":%s,\"estimateBatchNanos\":%s,\"writeBatchNanos\":%s}",
+						run._size, run._threads, run._repeat, run._loadMillis, run._seconds, run.pairsPerSecond(),
+						latency(run._features), latency(run._estimate), latency(run._write)) );
+			}
+			out.write("\n],\n\"summary\":[");
+
+			Map<String, List<Run>> configurations = new LinkedHashMap<String, List<Run>>();
+			for(Run run : runs) {
+				String key = run._size + "/" + run._threads;
+				if( !configurations.containsKey(key) )
+					configurations.put(key, new ArrayList<Run>());
+				configurations.get(key).add(run);
+			}
+			boolean first = true;
+			for(List<Run> configuration : configurations.values()) {
+				double pairsPerSecond[] = new double[configuration.size()];
+				for(int i=0; i<pairsPerSecond.length; ++i)
+					pairsPerSecond[i] = configuration.get(i).pairsPerSecond();
+				Arrays.sort(pairsPerSecond);
+				out.write(first ? "\n" : ",\n");
+				first = false;
+				out.write( String.format(Locale.US, "{\"size\":%d,\"threads\":%d,\"medianPairsPerSecond\":%.1f}",
+						configuration.get(0)._size, configuration.get(0)._threads, pairsPerSecond[pairsPerSecond.length / 2]) );
+			}
+			out.write("\n]}\n");
+		}
+		finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	private static String latency(LatencyHistogram.Snapshot snapshot) {
+		return String.format(Locale.US, "{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"max\":%d}",
+				snapshot.getCount(), snapshot.getMean(), snapshot.getValueAtPercentile(50),
+				snapshot.getValueAtPercentile(90), snapshot.getValueAtPercentile(99), snapshot.getMax());
+	}
+
+	private static int[] parseInts(String values) {
+		String parts[] = values.split(",");
+		int ints[] = new int[parts.length];
+		for(int i=0; i<parts.length; ++i)
+			ints[i] = Integer.parseInt(parts[i].trim());
+		return ints;
+	}
+}
@@ -0,0 +1,35 @@
+package trifonov.stanislav.textmining.bench;
+
+/**
+ * Takes the results of benchmarked calls so that the JIT can't drop them as dead code, at the cost of a
+ * couple of compares per call. As in JMH, a value is only compared to volatile fields it never equals;
+ * objects are stored, rarely, behind a pseudo random mask.
+ */
+public class Blackhole {
+
+	private volatile double _double1 = 1;
+	private volatile double _double2 = 2;
+	private volatile long _long1 = 1;
+	private volatile long _long2 = 2;
+	private volatile Object _sink;
+	private int _random = (int) System.nanoTime();
+	private int _mask = 1;
+
+	public void consume(Object value) {
+		int random = (_random = _random * 1664525 + 1013904223);
+		if( (random & _mask) == 0 ) {
+			_sink = value;
+			_mask = (_mask << 1) + 1;
+		}
+	}
+
+	public void consume(double value) {
+		if(value == _double1 & value == _double2)
+			_sink = value;
+	}
+
+	public void consume(long value) {
+		if(value == _long1 & value == _long2)
+			_sink = value;
+	}
+}
@@ -0,0 +1,186 @@
+package trifonov.stanislav.textmining.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A small JMH-like harness: a benchmark is called in a loop for a number of warmup iterations, whose results
+ * are thrown away, then for the measured ones, each lasting a fixed time. The calls are made in chunks
+ * (calibrated during the warmup to last about {@link #CHUNK_NANOS}) so that reading the clock costs
+ * nothing per call, and every result goes to a {@link Blackhole}.
+ *
+ * Results are written as TSV lines <code>name\tns/op\tstandard deviation</code>; compared with such a
+ * baseline file, a run reports the benchmarks that became slower than a tolerance.
+ */
+public class Harness {
+
+	private static final long CHUNK_NANOS = 100_000;
+
+	public interface Benchmark {
+		Object run() throws Exception;
+	}
+
+	public static class Result {
+		private final String _name;
+		private final double _nanosPerOp;
+		private final double _deviation;
+		private final long _ops;
+
+		Result(String name, double nanosPerOp, double deviation, long ops) {
+			_name = name;
+			_nanosPerOp = nanosPerOp;
+			_deviation = deviation;
+			_ops = ops;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		/**
+		 * @return mean of the measured iterations
+		 */
+		public double getNanosPerOp() {
+			return _nanosPerOp;
+		}
+
+		/**
+		 * @return standard deviation between the measured iterations
+		 */
+		public double getDeviation() {
+			return _deviation;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%-40s %14.1f ns/op  +- %10.1f  (%d ops)", _name, _nanosPerOp, _deviation, _ops);
+		}
+	}
+
+	private final int _warmupIterations;
+	private final int _measurementIterations;
+	private final long _iterationNanos;
+	private final Blackhole _blackhole = new Blackhole();
+	private final List<Result> _results = new ArrayList<Result>();
+
+	public Harness(int warmupIterations, int measurementIterations, long iterationMillis) {
+		_warmupIterations = warmupIterations;
+		_measurementIterations = measurementIterations;
+		_iterationNanos = iterationMillis * 1_000_000;
+	}
+
+	/**
+	 * Measures a benchmark, prints and keeps its result
+	 */
+	public Result run(String name, Benchmark benchmark) throws Exception {
+		int chunk = 1;
+		for(int iteration=0; iteration<_warmupIterations; ++iteration) {
+			long deadline = System.nanoTime() + _iterationNanos;
+			long chunkStart;
+			do {
+				chunkStart = System.nanoTime();
+				for(int i=0; i<chunk; ++i)
+					_blackhole.consume(benchmark.run());
+				if(System.nanoTime() - chunkStart < CHUNK_NANOS && chunk < (1 << 20))
+					chunk *= 2;
+			} while(chunkStart < deadline);
+		}
+
+		double nanosPerOp[] = new double[_measurementIterations];
+		long totalOps = 0;
+		for(int iteration=0; iteration<_measurementIterations; ++iteration) {
+			long ops = 0;
+			long start = System.nanoTime();
+			long deadline = start + _iterationNanos;
+			long now;
+			do {
+				for(int i=0; i<chunk; ++i)
+					_blackhole.consume(benchmark.run());
+				ops += chunk;
+			} while( (now = System.nanoTime()) < deadline );
+			nanosPerOp[iteration] = (now - start) / (double) ops;
+			totalOps += ops;
+		}
+
+		double mean = 0;
+		for(double value : nanosPerOp)
+			mean += value;
+		mean /= nanosPerOp.length;
+		double variance = 0;
+		for(double value : nanosPerOp)
+			variance += (value - mean) * (value - mean);
+		variance = nanosPerOp.length > 1 ? variance / (nanosPerOp.length - 1) : 0;
+
+		Result result = new Result(name, mean, Math.sqrt(variance), totalOps);
+		_results.add(result);
+		System.out.println(result);
+		return result;
+	}
+
+	public List<Result> getResults() {
+		return _results;
+	}
+
+	public void writeResults(File resultsFile) throws IOException {
+		Writer out = null;
+		try {
+			out = new BufferedWriter( new OutputStreamWriter(new FileOutputStream(resultsFile), StandardCharsets.UTF_8) );
+			for(Result result : _results)
+				out.write( String.format(Locale.US, "%s\t%.1f\t%.1f%n", result._name, result._nanosPerOp, result._deviation) );
+		}
+		finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	/**
+	 * @return ns/op by benchmark name, of a file written by {@link #writeResults(File)}
+	 */
+	public static Map<String, Double> readResults(File resultsFile) throws IOException {
+		Map<String, Double> results = new LinkedHashMap<String, Double>();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader( new InputStreamReader(new FileInputStream(resultsFile), StandardCharsets.UTF_8) );
+			String line;
+			while( (line = in.readLine()) != null ) {
+				String columns[] = line.split("\t");
+				if(columns.length >= 2)
+					results.put(columns[0], Double.parseDouble(columns[1]));
+			}
+		}
+		finally {
+			if(in != null)
+				in.close();
+		}
+		return results;
+	}
+
+	/**
+	 * @param tolerance e.g. 0.1 to let a benchmark be up to 10% slower than its baseline
+	 * @return a line per benchmark slower than its baseline by more than the tolerance
+	 */
+	public List<String> regressions(Map<String, Double> baseline, double tolerance) {
+		List<String> regressions = new ArrayList<String>();
+		for(Result result : _results) {
+			Double baselineNanos = baseline.get(result._name);
+			if(baselineNanos != null && result._nanosPerOp > baselineNanos * (1 + tolerance))
+				regressions.add( String.format(Locale.US, "%s: %.1f ns/op, baseline %.1f ns/op (%+.0f%%)",
+						result._name, result._nanosPerOp, baselineNanos, 100 * (result._nanosPerOp / baselineNanos - 1)) );
+		}
+		return regressions;
+	}
+}
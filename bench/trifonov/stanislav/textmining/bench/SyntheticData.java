@@ -0,0 +1,227 @@
+package trifonov.stanislav.textmining.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic tweets and word vectors: the same seed always gives the same vocabulary, sentences and vectors.
+ *
+ * Words are roots of random letters with the suffixes the stemmer strips, many roots with several suffixes;
+ * they are drawn with a skew towards the start of the vocabulary, as common words are. A word shared by the
+ * two sentences of a pair is sometimes another form of the same root, so the stem n-grams overlap more than
+ * the word ones. Every {@link #OOV_EVERY}th word of the vocabulary has no vector.
+ */
+public class SyntheticData {
+
+	public static final int OOV_EVERY = 10;
+
+	private static final String[] POS_TAGS = { "NN", "NNP", "VB", "VBD", "JJ", "RB", "DT", "IN", "PRP", "UH" };
+	private static final String[] SUFFIXES = { "", "s", "ing", "ed", "ly", "ness" };
+	private static final double NEW_ROOT_RATE = 0.5;
+	private static final double VARIANT_RATE = 0.25;
+	/** tweet lengths of the data files, in tokens */
+	private static final int MIN_LENGTH = 6;
+	private static final int MAX_LENGTH = 24;
+
+	private final List<String> _vocabulary;
+	private final String[] _posTags;
+	/** the words of every root, by word */
+	private final List<List<Integer>> _rootWords;
+	private final long _seed;
+	private final Random _random;
+
+	public SyntheticData(long seed, int vocabularySize) {
+		_seed = seed;
+		_random = new Random(seed);
+		Set<String> vocabulary = new LinkedHashSet<String>(vocabularySize * 2);
+		List<String> roots = new ArrayList<String>();
+		List<List<Integer>> rootsWords = new ArrayList<List<Integer>>();
+		_rootWords = new ArrayList<List<Integer>>(vocabularySize);
+		StringBuilder root = new StringBuilder();
+		while(vocabulary.size() < vocabularySize) {
+			int rootIndex;
+			if(roots.isEmpty() || _random.nextDouble() < NEW_ROOT_RATE) {
+				root.setLength(0);
+				int length = 3 + _random.nextInt(6);
+				for(int i=0; i<length; ++i)
+					root.append( (char) ('a' + _random.nextInt(26)) );
+				rootIndex = roots.size();
+				roots.add( root.toString() );
+				rootsWords.add( new ArrayList<Integer>() );
+			}
+			else
+				rootIndex = _random.nextInt(roots.size());
+
+			if( vocabulary.add(roots.get(rootIndex) + SUFFIXES[_random.nextInt(SUFFIXES.length)]) ) {
+				rootsWords.get(rootIndex).add(_rootWords.size());
+				_rootWords.add( rootsWords.get(rootIndex) );
+			}
+		}
+		_vocabulary = new ArrayList<String>(vocabulary);
+
+		_posTags = new String[vocabularySize];
+		for(int i=0; i<vocabularySize; ++i)
+			_posTags[i] = POS_TAGS[_random.nextInt(POS_TAGS.length)];
+	}
+
+	public List<String> getVocabulary() {
+		return _vocabulary;
+	}
+
+	/**
+	 * @return tags (<code>word/NER/POS ...</code>) of a sentence of random words
+	 */
+	public String tags(int length) {
+		StringBuilder tags = new StringBuilder();
+		for(int i=0; i<length; ++i)
+			appendTag(tags, nextWord());
+		return tags.toString();
+	}
+
+	/**
+	 * @param overlap the probability of every word of the second sentence being the one at the same place in the first
+	 * @return the tags of two sentences
+	 */
+	public String[] pair(int length, double overlap) {
+		return pair(length, length, overlap);
+	}
+
+	public String[] pair(int length1, int length2, double overlap) {
+		int first[] = new int[length1];
+		StringBuilder tags1 = new StringBuilder();
+		for(int i=0; i<length1; ++i) {
+			first[i] = nextWord();
+			appendTag(tags1, first[i]);
+		}
+		StringBuilder tags2 = new StringBuilder();
+		for(int i=0; i<length2; ++i)
+			appendTag(tags2, i < length1 && _random.nextDouble() < overlap ? sameRoot(first[i]) : nextWord());
+		return new String[] { tags1.toString(), tags2.toString() };
+	}
+
+	/**
+	 * @return vectors of uniform random components in [-1, 1], for all words but the out of vocabulary ones
+	 */
+	public Map<String, float[]> vectors(int layerSize) {
+		Random random = new Random(_seed ^ 0x5DEECE66DL);
+		Map<String, float[]> vectors = new HashMap<String, float[]>(_vocabulary.size() * 2);
+		for(int w=0; w<_vocabulary.size(); ++w) {
+			if(w % OOV_EVERY == OOV_EVERY - 1)
+				continue;
+			float vector[] = new float[layerSize];
+			for(int i=0; i<layerSize; ++i)
+				vector[i] = random.nextFloat() * 2 - 1;
+			vectors.put(_vocabulary.get(w), vector);
+		}
+		return vectors;
+	}
+
+	/**
+	 * Writes a data file in the PIT-2015 format: topic id, topic name, the two sentences, the label as the
+	 * <code>(yes, no)</code> votes of the annotators and the tags of the two sentences. A pair's words overlap
+	 * as much as its annotators agree that it's a paraphrase.
+	 */
+	public void writePitData(File file, int pairsCount, int pairsPerTopic) throws IOException {
+		Writer out = null;
+		try {
+			out = new BufferedWriter( new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16 );
+			for(int i=0; i<pairsCount; ++i) {
+				int topic = i / pairsPerTopic;
+				int votes = _random.nextInt(6);
+				String pair[] = pair(
+						MIN_LENGTH + _random.nextInt(MAX_LENGTH - MIN_LENGTH + 1),
+						MIN_LENGTH + _random.nextInt(MAX_LENGTH - MIN_LENGTH + 1),
+						votes / 5.0 );
+				out.write(String.valueOf(topic));
+				out.write('\t');
+				out.write( _vocabulary.get(topic % _vocabulary.size()) );
+				out.write('\t');
+				out.write( words(pair[0]) );
+				out.write('\t');
+				out.write( words(pair[1]) );
+				out.write('\t');
+				out.write( "(" + votes + ", " + (5 - votes) + ")" );
+				out.write('\t');
+				out.write(pair[0]);
+				out.write('\t');
+				out.write(pair[1]);
+				out.write('\n');
+			}
+		}
+		finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	/**
+	 * Writes vectors in the word2vec binary format: a <code>count size</code> header line, then every word,
+	 * a space and its little-endian floats, followed by a newline
+	 */
+	public static void writeWord2Vec(Map<String, float[]> vectors, int layerSize, File file) throws IOException {
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+			out.write( (vectors.size() + " " + layerSize + "\n").getBytes(StandardCharsets.UTF_8) );
+			ByteBuffer floats = ByteBuffer.allocate(4 * layerSize).order(ByteOrder.LITTLE_ENDIAN);
+			for(Map.Entry<String, float[]> entry : vectors.entrySet()) {
+				out.write( (entry.getKey() + " ").getBytes(StandardCharsets.UTF_8) );
+				floats.clear();
+				floats.asFloatBuffer().put(entry.getValue());
+				out.write(floats.array());
+				out.write('\n');
+			}
+		}
+		finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	private static String words(String tags) {
+		StringBuilder words = new StringBuilder(tags.length());
+		for(String token : tags.split(" ")) {
+			if(words.length() > 0)
+				words.append(' ');
+			words.append( token, 0, token.indexOf('/') );
+		}
+		return words.toString();
+	}
+
+	private int nextWord() {
+		double r = _random.nextDouble();
+		return (int) (r * r * _vocabulary.size());
+	}
+
+	/**
+	 * @return the word itself or, sometimes, another word of its root
+	 */
+	private int sameRoot(int word) {
+		if(_random.nextDouble() >= VARIANT_RATE)
+			return word;
+		List<Integer> words = _rootWords.get(word);
+		return words.get( _random.nextInt(words.size()) );
+	}
+
+	private void appendTag(StringBuilder tags, int word) {
+		if(tags.length() > 0)
+			tags.append(' ');
+		tags.append( _vocabulary.get(word) ).append("/O/").append( _posTags[word] );
+	}
+}
@@ -0,0 +1,239 @@
+package trifonov.stanislav.textmining.feature;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+import opennlp.tools.stemmer.PorterStemmer;
+import trifonov.stanislav.ml.ClusteringKMeansModel;
+import trifonov.stanislav.ml.GradientBoostedTreesModel;
+import trifonov.stanislav.ml.IMLModel;
+import trifonov.stanislav.ml.NormalEquationsRegressionModel;
+import trifonov.stanislav.ml.RegressionModel;
+import trifonov.stanislav.textmining.PairData;
+import trifonov.stanislav.textmining.Word2VecStore;
+import trifonov.stanislav.textmining.bench.Harness;
+import trifonov.stanislav.textmining.bench.SyntheticData;
+
+/**
+ * Benchmarks of the per pair hot paths: {@link FeaturesExtractor#init(String, String)}, every feature getter,
+ * {@link FeaturesExtractor#nGramOverlaps}, {@link FeaturesExtractor#maxW2VSimilarity}, {@link PorterStemmer#stem(String)}
+ * and {@link IMLModel#estimate(double[])} of every kind of model, on {@link SyntheticData} pairs of each
+ * requested length with vectors read from a generated word2vec file.
+ *
+ * Arguments: <code>[--lengths 8,16,32] [--warmup 3] [--iterations 5] [--time-ms 500] [--filter text]
+ * [--store] [--results file] [--baseline file] [--tolerance 0.1]</code>
+ * <br><code>--store</code> looks the vectors up in a {@link Word2VecStore} instead of a heap map;
+ * with a baseline the run fails if a benchmark got slower than the tolerance.
+ */
+public class HotPathBenchmarks {
+
+	private static final long SEED = 2015;
+	private static final int VOCABULARY_SIZE = 5000;
+	/** as assumed by {@link FeaturesExtractor#getWord2VecFeature()} */
+	private static final int LAYER_SIZE = 300;
+	private static final int PAIRS_COUNT = 256;
+	private static final double PAIR_OVERLAP = 0.4;
+	private static final int TRAINING_PAIRS_COUNT = 2000;
+	private static final int TRAINING_MIN_LENGTH = 6;
+	private static final int TRAINING_MAX_LENGTH = 24;
+
+	private final Harness _harness;
+	private final String _filter;
+
+	private HotPathBenchmarks(Harness harness, String filter) {
+		_harness = harness;
+		_filter = filter;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String lengths = "8,16,32";
+		int warmupIterations = 3;
+		int iterations = 5;
+		long iterationMillis = 500;
+		String filter = null;
+		boolean store = false;
+		File resultsFile = null;
+		File baselineFile = null;
+		double tolerance = 0.1;
+
+		for(int i=0; i<args.length; ++i) {
+			if( "--store".equals(args[i]) )
+				store = true;
+			else if(i+1 == args.length)
+				throw new IllegalArgumentException("No value for " + args[i]);
+			else if( "--lengths".equals(args[i]) )
+				lengths = args[++i];
+			else if( "--warmup".equals(args[i]) )
+				warmupIterations = Integer.parseInt(args[++i]);
+			else if( "--iterations".equals(args[i]) )
+				iterations = Integer.parseInt(args[++i]);
+			else if( "--time-ms".equals(args[i]) )
+				iterationMillis = Long.parseLong(args[++i]);
+			else if( "--filter".equals(args[i]) )
+				filter = args[++i];
+			else if( "--results".equals(args[i]) )
+				resultsFile = new File(args[++i]);
+			else if( "--baseline".equals(args[i]) )
+				baselineFile = new File(args[++i]);
+			else if( "--tolerance".equals(args[i]) )
+				tolerance = Double.parseDouble(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+
+		SyntheticData data = new SyntheticData(SEED, VOCABULARY_SIZE);
+		File word2vecFile = File.createTempFile("bench-word2vec", ".bin");
+		word2vecFile.deleteOnExit();
+		SyntheticData.writeWord2Vec(data.vectors(LAYER_SIZE), LAYER_SIZE, word2vecFile);
+		Word2VecStore word2vecStore = new Word2VecStore(word2vecFile);
+		Map<String, float[]> word2vecs = store ? word2vecStore : new HashMap<String, float[]>(word2vecStore);
+
+		HotPathBenchmarks benchmarks = new HotPathBenchmarks( new Harness(warmupIterations, iterations, iterationMillis), filter );
+		benchmarks.stemmer(data);
+		for(String length : lengths.split(","))
+			benchmarks.features(data, word2vecs, Integer.parseInt(length.trim()));
+		benchmarks.models(data, word2vecs);
+
+		Harness harness = benchmarks._harness;
+		if(resultsFile != null)
+			harness.writeResults(resultsFile);
+		if(baselineFile != null) {
+			List<String> regressions = harness.regressions(Harness.readResults(baselineFile), tolerance);
+			for(String regression : regressions)
+				System.out.println("REGRESSION " + regression);
+			if( !regressions.isEmpty() )
+				System.exit(1);
+		}
+	}
+
+	private void run(String name, Harness.Benchmark benchmark) throws Exception {
+		if(_filter == null || name.contains(_filter))
+			_harness.run(name, benchmark);
+	}
+
+	private void stemmer(SyntheticData data) throws Exception {
+		final List<String> words = data.getVocabulary();
+		final PorterStemmer stemmer = new PorterStemmer();
+		final int index[] = { 0 };
+		run("PorterStemmer.stem", () -> stemmer.stem( words.get(next(index, words.size())) ));
+	}
+
+	private void features(SyntheticData data, Map<String, float[]> word2vecs, int length) throws Exception {
+		final String tags[][] = new String[PAIRS_COUNT][];
+		final Sentence sentences[][] = new Sentence[PAIRS_COUNT][];
+		for(int i=0; i<PAIRS_COUNT; ++i) {
+			tags[i] = data.pair(length, PAIR_OVERLAP);
+			sentences[i] = new Sentence[] { Sentence.parse(tags[i][0]), Sentence.parse(tags[i][1]) };
+		}
+		final FeaturesExtractor extractor = new FeaturesExtractor(word2vecs);
+		final int index[] = { 0 };
+		String suffix = "[" + length + "]";
+
+		run("init" + suffix, () -> {
+			String pair[] = tags[next(index, PAIRS_COUNT)];
+			extractor.init(pair[0], pair[1]);
+			return extractor;
+		} );
+
+		Map<String, Callable<Feature>> getters = new LinkedHashMap<String, Callable<Feature>>();
+		getters.put("getWordOrderSimilarity", extractor::getWordOrderSimilarity);
+		getters.put("getSemanticSimilarity", extractor::getSemanticSimilarity);
+		getters.put("getWord2VecFeature", extractor::getWord2VecFeature);
+		getters.put("getW2VSSFeature", extractor::getW2VSSFeature);
+		getters.put("getW2VCosSimFeature", extractor::getW2VCosSimFeature);
+		getters.put("get1gramPrecision", extractor::get1gramPrecision);
+		getters.put("get1gramRecall", extractor::get1gramRecall);
+		getters.put("get1gramF1", extractor::get1gramF1);
+		getters.put("get1gramStemPrecision", extractor::get1gramStemPrecision);
+		getters.put("get1gramStemRecall", extractor::get1gramStemRecall);
+		getters.put("get1gramStemF1", extractor::get1gramStemF1);
+		getters.put("get2gramPrecision", extractor::get2gramPrecision);
+		getters.put("get2gramRecall", extractor::get2gramRecall);
+		getters.put("get2gramF1", extractor::get2gramF1);
+		getters.put("get2gramStemPrecision", extractor::get2gramStemPrecision);
+		getters.put("get2gramStemRecall", extractor::get2gramStemRecall);
+		getters.put("get2gramStemF1", extractor::get2gramStemF1);
+		getters.put("get3gramPrecision", extractor::get3gramPrecision);
+		getters.put("get3gramRecall", extractor::get3gramRecall);
+		getters.put("get3gramF1", extractor::get3gramF1);
+		getters.put("get3gramStemPrecision", extractor::get3gramStemPrecision);
+		getters.put("get3gramStemRecall", extractor::get3gramStemRecall);
+		getters.put("get3gramStemF1", extractor::get3gramStemF1);
+		getters.put("getFeatures", () -> extractor.getFeatures().get(0));
+		// a getter runs on a freshly initialized pair, so the n-gram ones include computing the shared overlaps
+		for(Map.Entry<String, Callable<Feature>> getter : getters.entrySet()) {
+			final Callable<Feature> call = getter.getValue();
+			run(getter.getKey() + suffix, () -> {
+				Sentence pair[] = sentences[next(index, PAIRS_COUNT)];
+				extractor.init(pair[0], pair[1]);
+				return call.call();
+			} );
+		}
+
+		run("nGramOverlaps" + suffix, () -> {
+			Sentence pair[] = sentences[next(index, PAIRS_COUNT)];
+			return FeaturesExtractor.nGramOverlaps(
+					pair[0].getNGramHashes(1), pair[0].getNGramHashes(2), pair[0].getNGramHashes(3),
+					pair[1].getNGramHashes(1), pair[1].getNGramHashes(2), pair[1].getNGramHashes(3) );
+		} );
+
+		run("maxW2VSimilarity" + suffix, () -> {
+			Sentence pair[] = sentences[next(index, PAIRS_COUNT)];
+			return extractor.maxW2VSimilarity(
+					pair[0].getWords().get(0), pair[0].getPOSTags().get(0), pair[1].getWords(), pair[1].getPOSTags() );
+		} );
+	}
+
+	private void models(SyntheticData data, Map<String, float[]> word2vecs) throws Exception {
+		// labels follow the overlap of the pair, so that the models have something to learn;
+		// sentences of different lengths keep the n-gram precisions and recalls apart
+		Random random = new Random(SEED);
+		FeaturesExtractor extractor = new FeaturesExtractor(word2vecs);
+		final double rows[][] = new double[TRAINING_PAIRS_COUNT][];
+		float labels[] = new float[TRAINING_PAIRS_COUNT];
+		for(int i=0; i<TRAINING_PAIRS_COUNT; ++i) {
+			int votes = random.nextInt(6);
+			String pair[] = data.pair(
+					TRAINING_MIN_LENGTH + random.nextInt(TRAINING_MAX_LENGTH - TRAINING_MIN_LENGTH + 1),
+					TRAINING_MIN_LENGTH + random.nextInt(TRAINING_MAX_LENGTH - TRAINING_MIN_LENGTH + 1),
+					votes / 5.0 );
+			extractor.init(pair[0], pair[1]);
+			List<Feature> features = extractor.getFeatures();
+			rows[i] = new double[features.size()];
+			for(int f=0; f<features.size(); ++f)
+				rows[i][f] = features.get(f)._featureValue.doubleValue();
+			labels[i] = votes == 2 ? PairData.LABEL_DEBATABLE : votes / 5f;
+		}
+
+		Map<String, Supplier<IMLModel>> models = new LinkedHashMap<String, Supplier<IMLModel>>();
+		models.put( "RegressionModel", () -> new RegressionModel() );
+		models.put( "NormalEquationsRegressionModel", () -> new NormalEquationsRegressionModel(1e-6) );
+		models.put( "GradientBoostedTreesModel", () -> new GradientBoostedTreesModel() );
+		models.put( "ClusteringKMeansModel", () -> new ClusteringKMeansModel(4, 1.1) );
+
+		final int index[] = { 0 };
+		List<String> names = new ArrayList<String>(models.keySet());
+		for(String name : names) {
+			if(_filter != null && !(name + ".estimate").contains(_filter))
+				continue;
+			final IMLModel model = models.get(name).get();
+			for(int i=0; i<rows.length; ++i)
+				model.feedData(rows[i], labels[i]);
+			model.build();
+			run(name + ".estimate", () -> model.estimate( rows[next(index, rows.length)] ));
+		}
+	}
+
+	private static int next(int index[], int count) {
+		int next = index[0];
+		index[0] = next + 1 == count ? 0 : next + 1;
+		return next;
+	}
+}
@@ -5,14 +5,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.ml.clustering.CentroidCluster;
 import org.apache.commons.math3.ml.clustering.Cluster;
 import org.apache.commons.math3.ml.clustering.Clusterable;
 import org.apache.commons.math3.ml.clustering.FuzzyKMeansClusterer;
-import org.apache.commons.math3.ml.clustering.evaluation.ClusterEvaluator;
 import org.apache.commons.math3.ml.clustering.evaluation.SumOfClusterVariances;
-import org.apache.commons.math3.ml.distance.DistanceMeasure;
 
 import trifonov.stanislav.textmining.PairData;
 
@@ -52,71 +49,176 @@ public class ClusteringKMeansModel implements IMLModel {
 	
 	
 	private final int _k;
-	private final List<Observation> _points = new ArrayList<Observation>();
-	private final FuzzyKMeansClusterer<Observation> _clusterer;
-	private List<CentroidCluster<Observation>> _clusters;
+	private final double _fuzziness;
+	/** the training data, dropped once built */
+	private List<Observation> _points = new ArrayList<Observation>();
+	private FuzzyKMeansClusterer<Observation> _clusterer;
 	private List<ClusterInfo> _clusterInfos;
+	private double _purity;
+	private double _entropy;
+	private double _sumOfClusterVariances;
+	private double[][] _centroids;
+	private float[] _centroidLabels;
+	private float[] _floatCentroids;
 	
 	
 	public ClusteringKMeansModel(int k, double fuzziness) {
 		_k = k;
+		_fuzziness = fuzziness;
 		_clusterer = new FuzzyKMeansClusterer<Observation>(_k, fuzziness);
 	}
+	
+	/**
+	 * Restores an already trained model
+	 */
+	public ClusteringKMeansModel(double fuzziness, double[][] centroids, float[] centroidLabels) {
+		_k = centroids.length;
+		_fuzziness = fuzziness;
+		_clusterer = null;
+		_centroids = centroids;
+		_centroidLabels = centroidLabels;
+		_floatCentroids = toFloatBlock(centroids);
+	}
+	
+	public double getFuzziness() {
+		return _fuzziness;
+	}
+	
+	public double[][] getCentroids() {
+		return _centroids;
+	}
+	
+	public float[] getCentroidLabels() {
+		return _centroidLabels;
+	}
 
 	@Override
 	public void feedData(double[] data, float label) {
 		_points.add( new Observation(data, label) );
 	}
 
+	/**
+	 * Clusters the fed data, keeps the centroids with their labels and the clusters' quality measures,
+	 * and drops the training data and the clusterer
+	 */
 	@Override
 	public void build() {
-		_clusters = (List<CentroidCluster<Observation>>)_clusterer.cluster(_points);
-		_clusterInfos = new ArrayList<ClusteringKMeansModel.ClusterInfo>( _clusters.size() );
-		for(Cluster<Observation> cluster : _clusters)
+		List<CentroidCluster<Observation>> clusters = _clusterer.cluster(_points);
+		_clusterInfos = new ArrayList<ClusteringKMeansModel.ClusterInfo>( clusters.size() );
+		for(Cluster<Observation> cluster : clusters)
 			_clusterInfos.add( makeClassInfo(cluster) );
 		
-		for(ClusterInfo info : _clusterInfos)
-			System.out.print( String.format("%.5f", info._purity) + " ");
-		System.out.println();
+		_centroids = new double[clusters.size()][];
+		_centroidLabels = new float[clusters.size()];
+		_purity = 0;
+		_entropy = 0;
+		for(int i=0; i<clusters.size(); ++i) {
+			_centroids[i] = clusters.get(i).getCenter().getPoint();
+			_centroidLabels[i] = _clusterInfos.get(i)._label;
+			double share = clusters.get(i).getPoints().size() / (double)_points.size();
+			_purity += _clusterInfos.get(i)._purity * share;
+			_entropy += _clusterInfos.get(i)._entropy * share;
+		}
+		_floatCentroids = toFloatBlock(_centroids);
+		_sumOfClusterVariances = new SumOfClusterVariances<Observation>(_clusterer.getDistanceMeasure()).score(clusters);
+		
+		_points = null;
+		_clusterer = null;
 	}
 
+	/**
+	 * The labels of the clusters weighted by the item's memberships, computed from its distances to the
+	 * centroids - the same for a freshly built and a {@link #ClusteringKMeansModel(double, double[][], float[]) restored} model
+	 */
 	@Override
 	public double estimate(double data[]) {
-		DistanceMeasure distanceMeasure = _clusterer.getDistanceMeasure();
+		return estimateFromCentroids(data, 0, data.length);
+	}
+	
+	@Override
+	public void estimate(double rows[], int featuresCount, int rowsCount, double estimations[]) {
+		for(int row=0; row<rowsCount; ++row)
+			estimations[row] = estimateFromCentroids(rows, row*featuresCount, featuresCount);
+	}
+	
+	@Override
+	public void estimate(float rows[], int featuresCount, int rowsCount, float estimations[]) {
+		for(int row=0; row<rowsCount; ++row)
+			estimations[row] = estimateFromCentroids(rows, row*featuresCount, featuresCount);
+	}
+	
+	/**
+	 * Fuzzy c-means membership u<sub>i</sub> = 1 / sum<sub>j</sub> (d<sub>i</sub>/d<sub>j</sub>)<sup>2/(m-1)</sup>,
+	 * used as weights of the clusters' labels
+	 */
+	private double estimateFromCentroids(double rows[], int offset, int featuresCount) {
+		double[] distances = new double[_centroids.length];
 		double minDistance = Double.MAX_VALUE;
-		int closestPointIndex = 0;
-
-		for(int i=0; i<_points.size(); ++i) {
-			double distanceFromPoint = distanceMeasure.compute(_points.get(i)._data, data);
-			if(distanceFromPoint < minDistance) {
-				minDistance = distanceFromPoint;
-				closestPointIndex = i;
+		for(int i=0; i<_centroids.length; ++i) {
+			double distance = 0;
+			for(int j=0; j<featuresCount; ++j) {
+				double d = _centroids[i][j] - rows[offset+j];
+				distance += d*d;
 			}
+			distances[i] = Math.sqrt(distance);
+			if(distances[i] < minDistance)
+				minDistance = distances[i];
 		}
 		
-		RealMatrix membershipMatrix = _clusterer.getMembershipMatrix();
-		double[] membershipWeights = membershipMatrix.getRow(closestPointIndex);
-		double positiveWeights = 0;
-		double negativeWeights = 0;
-		for(int i=0; i<membershipWeights.length; ++i) {
-//			if( _clusterInfos.get(i)._label >= PairData.LABEL_PARAPHRASE06 )
-				positiveWeights += membershipWeights[i];
-//			else
-//				negativeWeights += membershipWeights[i];
+		double exponent = 2 / (_fuzziness - 1);
+		double weightsSum = 0;
+		double estimation = 0;
+		for(int i=0; i<distances.length; ++i) {
+			double weight = minDistance == 0
+					? (distances[i] == 0 ? 1 : 0)
+					: Math.pow(minDistance / distances[i], exponent);
+			weightsSum += weight;
+			estimation += weight * _centroidLabels[i];
 		}
 		
-		double positiveEstimation = 0;
-		double negativeEstimation = 0;
+		return estimation / weightsSum;
+	}
+	
+	private float estimateFromCentroids(float rows[], int offset, int featuresCount) {
+		final int k = _centroidLabels.length;
+		float[] distances = new float[k];
+		float minDistance = Float.MAX_VALUE;
+		for(int i=0; i<k; ++i) {
+			int centroidOffset = i*featuresCount;
+			float distance = 0;
+			for(int j=0; j<featuresCount; ++j) {
+				float d = _floatCentroids[centroidOffset+j] - rows[offset+j];
+				distance += d*d;
+			}
+			distances[i] = (float) Math.sqrt(distance);
+			if(distances[i] < minDistance)
+				minDistance = distances[i];
+		}
 		
-		for(int i=0; i<membershipWeights.length; ++i) {
-//			if( _clusterInfos.get(i)._label >= 0.6 )
-				positiveEstimation += ( (membershipWeights[i]/positiveWeights) * _clusterInfos.get(i)._label);
-//			else
-//				negativeEstimation += ( (membershipWeights[i]/negativeWeights) * _clusterInfos.get(i)._label);
+		double exponent = 2 / (_fuzziness - 1);
+		float weightsSum = 0;
+		float estimation = 0;
+		for(int i=0; i<k; ++i) {
+			float weight = minDistance == 0
+					? (distances[i] == 0 ? 1 : 0)
+					: (float) Math.pow(minDistance / distances[i], exponent);
+			weightsSum += weight;
+			estimation += weight * _centroidLabels[i];
 		}
 		
-//		return positiveWeights > negativeWeights ? positiveEstimation : negativeEstimation;
-		return positiveEstimation;
+		return estimation / weightsSum;
+	}
+	
+	private static float[] toFloatBlock(double[][] rows) {
+		if(rows.length == 0)
+			return new float[0];
+		
+		final int columns = rows[0].length;
+		float[] block = new float[rows.length * columns];
+		for(int i=0; i<rows.length; ++i)
+			for(int j=0; j<columns; ++j)
+				block[i*columns + j] = (float) rows[i][j];
+		return block;
 	}
 	
 	protected ClusterInfo makeClassInfo(Cluster<Observation> cluster) {
@@ -151,29 +253,33 @@ public class ClusteringKMeansModel implements IMLModel {
 		return Math.log(x) / Math.log(2);
 	}
 	
+	/**
+	 * @return the purity of every cluster built, in centroid order; empty for a restored model
+	 */
+	public double[] getPurities() {
+		if(_clusterInfos == null)
+			return new double[0];
+		double purities[] = new double[_clusterInfos.size()];
+		for(int i=0; i<purities.length; ++i)
+			purities[i] = _clusterInfos.get(i)._purity;
+		return purities;
+	}
+	
+	/**
+	 * @return the purity of the clusters weighted by their sizes, as of {@link #build()}
+	 */
 	public double getPurity() {
-		double purity = 0;
-		for(int i=0; i<_clusters.size(); ++i)
-			purity += 
-				_clusterInfos.get(i)._purity
-				* (_clusters.get(i).getPoints().size() / (double)_points.size());
-			
-		return purity;
+		return _purity;
 	}
 	
 	public double getEntropy() {
-		double entropy = 0;
-		for(int i=0; i<_clusters.size(); ++i)
-			entropy += _clusterInfos.get(i)._entropy
-			* (_clusters.get(i).getPoints().size() / (double)_points.size());
-		
-		return entropy;
+		return _entropy;
 	}
 	
+	/**
+	 * @return the sum of the clusters' variances, as of {@link #build()}
+	 */
 	public double evaluate() {
-		ClusterEvaluator<Observation> evaluator = 
-				new SumOfClusterVariances<Observation>(_clusterer.getDistanceMeasure());
-		
-		return evaluator.score(_clusters);
+		return _sumOfClusterVariances;
 	}
 }
@@ -0,0 +1,395 @@
+package trifonov.stanislav.ml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Gradient boosted regression trees (squared loss) trained on histograms of pre-binned features.
+ *
+ * Every feature is quantized into at most 256 buckets stored as bytes, so finding the best split
+ * of a node is a pass over its rows filling per-bucket gradient sums followed by a scan over the buckets.
+ * The features of a node are scanned in parallel.
+ *
+ * The trained trees are kept as one flattened array of nodes; a node with feature index -1 is a leaf.
+ */
+public class GradientBoostedTreesModel implements IMLModel {
+
+	private static final int MAX_BINS = 256;
+	private static final int LEAF = -1;
+
+	private static class Split {
+		int _feature = LEAF;
+		int _bin;
+		double _gain = 0;
+	}
+
+	private final int _treesCount;
+	private final int _maxDepth;
+	private final double _learningRate;
+	private final int _minRowsInLeaf;
+	private final double _lambda;
+	private final int _threadsCount;
+
+	private final List<double[]> _rows = new ArrayList<double[]>();
+	private final List<Float> _labels = new ArrayList<Float>();
+
+	private double _baseScore;
+	private int[] _treeRoots;
+	private int[] _featureIndex;
+	private double[] _thresholds;
+	private int[] _left;
+	private int[] _right;
+	private double[] _values;
+	private float[] _floatThresholds;
+	private float[] _floatValues;
+	private int _nodesCount;
+
+	public GradientBoostedTreesModel() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * The default model, finding splits on <code>threadsCount</code> threads
+	 */
+	public GradientBoostedTreesModel(int threadsCount) {
+		this(200, 4, 0.1, 20, 1.0, threadsCount);
+	}
+
+	/**
+	 * @param treesCount boosting rounds
+	 * @param maxDepth depth of every tree, a tree has at most 2<sup>maxDepth</sup> leaves
+	 * @param learningRate shrinkage of the leaf values
+	 * @param minRowsInLeaf a split is considered only if both children get at least that many rows
+	 * @param lambda L2 regularization of the leaf values
+	 * @param threadsCount threads used for split finding
+	 */
+	public GradientBoostedTreesModel(int treesCount, int maxDepth, double learningRate,
+			int minRowsInLeaf, double lambda, int threadsCount) {
+		_treesCount = treesCount;
+		_maxDepth = maxDepth;
+		_learningRate = learningRate;
+		_minRowsInLeaf = minRowsInLeaf;
+		_lambda = lambda;
+		_threadsCount = threadsCount;
+	}
+
+	/**
+	 * Restores an already trained model
+	 */
+	public GradientBoostedTreesModel(double baseScore, int[] treeRoots,
+			int[] featureIndex, double[] thresholds, int[] left, int[] right, double[] values) {
+		this();
+		_baseScore = baseScore;
+		_treeRoots = treeRoots;
+		_featureIndex = featureIndex;
+		_thresholds = thresholds;
+		_left = left;
+		_right = right;
+		_values = values;
+		_nodesCount = featureIndex.length;
+		prepareFloats();
+	}
+
+	public double getBaseScore() {
+		return _baseScore;
+	}
+
+	public int[] getTreeRoots() {
+		return _treeRoots;
+	}
+
+	public int[] getFeatureIndex() {
+		return _featureIndex;
+	}
+
+	public double[] getThresholds() {
+		return _thresholds;
+	}
+
+	public int[] getLeft() {
+		return _left;
+	}
+
+	public int[] getRight() {
+		return _right;
+	}
+
+	public double[] getValues() {
+		return _values;
+	}
+
+	@Override
+	public void feedData(double[] data, float label) {
+		_rows.add(data);
+		_labels.add(label);
+	}
+
+	@Override
+	public void build() {
+		final int rowsCount = _rows.size();
+		if(rowsCount == 0)
+			return;
+
+		final int featuresCount = _rows.get(0).length;
+		double[][] binEdges = new double[featuresCount][];
+		final byte[][] bins = new byte[featuresCount][];
+		for(int f=0; f<featuresCount; ++f) {
+			binEdges[f] = makeBinEdges(f);
+			bins[f] = new byte[rowsCount];
+			for(int i=0; i<rowsCount; ++i)
+				bins[f][i] = (byte) bin(binEdges[f], _rows.get(i)[f]);
+		}
+
+		double[] labels = new double[rowsCount];
+		double labelsSum = 0;
+		for(int i=0; i<rowsCount; ++i) {
+			labels[i] = _labels.get(i);
+			labelsSum += labels[i];
+		}
+		_baseScore = labelsSum / rowsCount;
+
+		double[] predictions = new double[rowsCount];
+		Arrays.fill(predictions, _baseScore);
+		double[] gradients = new double[rowsCount];
+
+		int maxNodes = _treesCount * ((1 << (_maxDepth + 1)) - 1);
+		_treeRoots = new int[_treesCount];
+		_featureIndex = new int[maxNodes];
+		_thresholds = new double[maxNodes];
+		_left = new int[maxNodes];
+		_right = new int[maxNodes];
+		_values = new double[maxNodes];
+		_nodesCount = 0;
+
+		ExecutorService executor = Executors.newFixedThreadPool(_threadsCount);
+		try {
+			int[] allRows = new int[rowsCount];
+			for(int i=0; i<rowsCount; ++i)
+				allRows[i] = i;
+
+			for(int tree=0; tree<_treesCount; ++tree) {
+				for(int i=0; i<rowsCount; ++i)
+					gradients[i] = predictions[i] - labels[i];
+
+				_treeRoots[tree] = growNode(allRows, 0, bins, binEdges, gradients, predictions, executor);
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		_featureIndex = Arrays.copyOf(_featureIndex, _nodesCount);
+		_thresholds = Arrays.copyOf(_thresholds, _nodesCount);
+		_left = Arrays.copyOf(_left, _nodesCount);
+		_right = Arrays.copyOf(_right, _nodesCount);
+		_values = Arrays.copyOf(_values, _nodesCount);
+		prepareFloats();
+
+		_rows.clear();
+		_labels.clear();
+	}
+
+	/**
+	 * Grows the subtree for the given rows and updates their predictions when the leaves are reached
+	 * @return index of the subtree's root
+	 */
+	private int growNode(int[] rows, int depth, final byte[][] bins, double[][] binEdges,
+			final double[] gradients, double[] predictions, ExecutorService executor) {
+		final int node = _nodesCount++;
+
+		double gradientsSum = 0;
+		for(int row : rows)
+			gradientsSum += gradients[row];
+
+		Split split = depth < _maxDepth && rows.length >= 2*_minRowsInLeaf
+				? findBestSplit(rows, gradientsSum, bins, gradients, executor)
+				: new Split();
+
+		if(split._feature == LEAF) {
+			double value = -_learningRate * gradientsSum / (rows.length + _lambda);
+			_featureIndex[node] = LEAF;
+			_values[node] = value;
+			for(int row : rows)
+				predictions[row] += value;
+			return node;
+		}
+
+		byte[] featureBins = bins[split._feature];
+		int leftCount = 0;
+		for(int row : rows)
+			if( (featureBins[row] & 0xFF) <= split._bin )
+				++leftCount;
+
+		int[] leftRows = new int[leftCount];
+		int[] rightRows = new int[rows.length - leftCount];
+		int l = 0, r = 0;
+		for(int row : rows) {
+			if( (featureBins[row] & 0xFF) <= split._bin )
+				leftRows[l++] = row;
+			else
+				rightRows[r++] = row;
+		}
+
+		_featureIndex[node] = split._feature;
+		_thresholds[node] = binEdges[split._feature][split._bin];
+		_left[node] = growNode(leftRows, depth+1, bins, binEdges, gradients, predictions, executor);
+		_right[node] = growNode(rightRows, depth+1, bins, binEdges, gradients, predictions, executor);
+		return node;
+	}
+
+	private Split findBestSplit(final int[] rows, final double gradientsSum, final byte[][] bins,
+			final double[] gradients, ExecutorService executor) {
+		List<Callable<Split>> tasks = new ArrayList<Callable<Split>>(bins.length);
+		for(int f=0; f<bins.length; ++f) {
+			final int feature = f;
+			tasks.add( () -> findBestSplit(feature, rows, gradientsSum, bins[feature], gradients) );
+		}
+
+		Split best = new Split();
+		try {
+			for(Future<Split> future : executor.invokeAll(tasks)) {
+				Split split = future.get();
+				if(split._gain > best._gain)
+					best = split;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+
+		return best;
+	}
+
+	private Split findBestSplit(int feature, int[] rows, double gradientsSum, byte[] featureBins, double[] gradients) {
+		double[] histogramGradients = new double[MAX_BINS];
+		int[] histogramCounts = new int[MAX_BINS];
+		for(int row : rows) {
+			int bin = featureBins[row] & 0xFF;
+			histogramGradients[bin] += gradients[row];
+			histogramCounts[bin]++;
+		}
+
+		Split split = new Split();
+		double parentScore = gradientsSum * gradientsSum / (rows.length + _lambda);
+		double leftGradients = 0;
+		int leftCount = 0;
+		for(int bin=0; bin<MAX_BINS-1; ++bin) {
+			leftGradients += histogramGradients[bin];
+			leftCount += histogramCounts[bin];
+			int rightCount = rows.length - leftCount;
+			if(leftCount < _minRowsInLeaf)
+				continue;
+			if(rightCount < _minRowsInLeaf)
+				break;
+
+			double rightGradients = gradientsSum - leftGradients;
+			double gain = leftGradients * leftGradients / (leftCount + _lambda)
+					+ rightGradients * rightGradients / (rightCount + _lambda)
+					- parentScore;
+			if(gain > split._gain) {
+				split._gain = gain;
+				split._feature = feature;
+				split._bin = bin;
+			}
+		}
+
+		return split;
+	}
+
+	/**
+	 * Upper edges of (at most) {@link #MAX_BINS} buckets holding roughly equal number of rows.
+	 * NaN values fall in the first bucket.
+	 */
+	private double[] makeBinEdges(int feature) {
+		double[] values = new double[_rows.size()];
+		int count = 0;
+		for(double[] row : _rows)
+			if( !Double.isNaN(row[feature]) )
+				values[count++] = row[feature];
+		Arrays.sort(values, 0, count);
+
+		double[] edges = new double[MAX_BINS];
+		int edgesCount = 0;
+		for(int b=1; b<=MAX_BINS && count > 0; ++b) {
+			int quantileIndex = Math.max( (int)((long)b * count / MAX_BINS) - 1, 0 );
+			double edge = values[quantileIndex];
+			if(edgesCount == 0 || edge > edges[edgesCount-1])
+				edges[edgesCount++] = edge;
+		}
+		if(edgesCount == 0)
+			edges[edgesCount++] = 0;
+
+		return Arrays.copyOf(edges, edgesCount);
+	}
+
+	private static int bin(double[] edges, double value) {
+		if( Double.isNaN(value) )
+			return 0;
+
+		int index = Arrays.binarySearch(edges, value);
+		if(index < 0)
+			index = -index - 1;
+		return Math.min(index, edges.length - 1);
+	}
+
+	private void prepareFloats() {
+		_floatThresholds = new float[_nodesCount];
+		_floatValues = new float[_nodesCount];
+		for(int i=0; i<_nodesCount; ++i) {
+			_floatThresholds[i] = (float) _thresholds[i];
+			_floatValues[i] = (float) _values[i];
+		}
+	}
+
+	@Override
+	public double estimate(double[] data) {
+		return estimate(data, 0);
+	}
+
+	/**
+	 * NaN features go to the left child, as they are binned in the first bucket
+	 */
+	private double estimate(double[] rows, int offset) {
+		double estimation = _baseScore;
+		for(int tree=0; tree<_treeRoots.length; ++tree) {
+			int node = _treeRoots[tree];
+			int feature;
+			while( (feature=_featureIndex[node]) != LEAF )
+				node = rows[offset+feature] > _thresholds[node] ? _right[node] : _left[node];
+			estimation += _values[node];
+		}
+		return estimation;
+	}
+
+	@Override
+	public void estimate(double[] rows, int featuresCount, int rowsCount, double[] estimations) {
+		for(int row=0; row<rowsCount; ++row)
+			estimations[row] = estimate(rows, row*featuresCount);
+	}
+
+	@Override
+	public void estimate(float[] rows, int featuresCount, int rowsCount, float[] estimations) {
+		for(int row=0; row<rowsCount; ++row) {
+			final int offset = row*featuresCount;
+			float estimation = (float) _baseScore;
+			for(int tree=0; tree<_treeRoots.length; ++tree) {
+				int node = _treeRoots[tree];
+				int feature;
+				while( (feature=_featureIndex[node]) != LEAF )
+					node = rows[offset+feature] > _floatThresholds[node] ? _right[node] : _left[node];
+				estimation += _floatValues[node];
+			}
+			estimations[row] = estimation;
+		}
+	}
+}
@@ -6,4 +6,17 @@ public interface IMLModel {
 //	public void setData(double data[]);
 	public void build();
 	public double estimate(double data[]);
+	
+	/**
+	 * Estimates a block of rows stored one after another (row-major) in <code>rows</code>
+	 * @param rows the features of <code>rowsCount</code> items, <code>featuresCount</code> values each
+	 * @param estimations receives the estimation of the i-th row at index i
+	 */
+	public void estimate(double rows[], int featuresCount, int rowsCount, double estimations[]);
+	
+	/**
+	 * Single precision variant of {@link #estimate(double[], int, int, double[])}.
+	 * The model's parameters are used as floats too.
+	 */
+	public void estimate(float rows[], int featuresCount, int rowsCount, float estimations[]);
 }
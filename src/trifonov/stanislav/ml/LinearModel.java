@@ -0,0 +1,71 @@
+package trifonov.stanislav.ml;
+
+/**
+ * Estimates with a linear combination of the features (no intercept). Subclasses only differ in how
+ * they find the coefficients at {@link #build()}.
+ */
+public abstract class LinearModel implements IMLModel {
+
+	double[] _regressionParameters = null;
+	float[] _floatRegressionParameters = null;
+	
+	LinearModel() {
+	}
+	
+	LinearModel(double[] regressionParameters) {
+		setParameters(regressionParameters);
+	}
+	
+	public double[] getParameters() {
+		return _regressionParameters;
+	}
+	
+	void setParameters(double[] regressionParameters) {
+		_regressionParameters = regressionParameters;
+		_floatRegressionParameters = toFloats(regressionParameters);
+	}
+
+	@Override
+	public double estimate(double features[]) {
+		double estimation = 0;
+		for (int i = 0; i < features.length; i++)
+			estimation += _regressionParameters[i] * features[i];
+
+		return estimation;
+	}
+	
+	@Override
+	public void estimate(double rows[], int featuresCount, int rowsCount, double estimations[]) {
+		final double[] parameters = _regressionParameters;
+		int offset = 0;
+		for(int row=0; row<rowsCount; ++row) {
+			double estimation = 0;
+			for(int i=0; i<featuresCount; ++i)
+				estimation += parameters[i] * rows[offset+i];
+			
+			estimations[row] = estimation;
+			offset += featuresCount;
+		}
+	}
+	
+	@Override
+	public void estimate(float rows[], int featuresCount, int rowsCount, float estimations[]) {
+		final float[] parameters = _floatRegressionParameters;
+		int offset = 0;
+		for(int row=0; row<rowsCount; ++row) {
+			float estimation = 0;
+			for(int i=0; i<featuresCount; ++i)
+				estimation += parameters[i] * rows[offset+i];
+			
+			estimations[row] = estimation;
+			offset += featuresCount;
+		}
+	}
+	
+	static float[] toFloats(double[] values) {
+		float[] floats = new float[values.length];
+		for(int i=0; i<values.length; ++i)
+			floats[i] = (float) values[i];
+		return floats;
+	}
+}
@@ -0,0 +1,251 @@
+package trifonov.stanislav.ml;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary save/load of trained models.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * int     magic "PITM"
+ * short   format version
+ * float   label border: estimations from it up are paraphrases (since version 2)
+ * short   feature schema length, followed by its UTF-8 bytes (since version 3)
+ * byte    model type
+ * int     features count, followed by each feature name (short length + UTF-8 bytes)
+ * ...     model specific payload: regression coefficients, fuzzy k-means centroids
+ *         or the flattened nodes of gradient boosted trees
+ * </pre>
+ * Loading maps the file read-only and fails with an {@link IncompatibleModelException} if the stored
+ * features or feature schema - what the feature values mean, e.g. their version and how unknown words
+ * are handled - differ from the expected ones.
+ * Version 1 files are read with {@link #DEFAULT_LABEL_BORDER}, files before version 3 with an empty feature schema.
+ */
+public class ModelStore {
+
+	private static final int MAGIC = 0x5049544D;
+	private static final short VERSION = 3;
+	private static final short VERSION_WITHOUT_LABEL_BORDER = 1;
+	private static final short VERSION_WITHOUT_FEATURE_SCHEMA = 2;
+
+	/** the label border of the models stored before it was tuned */
+	public static final float DEFAULT_LABEL_BORDER = 0.4f;
+
+	private static final byte TYPE_REGRESSION = 1;
+	private static final byte TYPE_FUZZY_KMEANS = 2;
+	private static final byte TYPE_GRADIENT_BOOSTED_TREES = 3;
+
+	/**
+	 * The stored model doesn't match the features it's going to be given
+	 */
+	public static class IncompatibleModelException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public IncompatibleModelException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A loaded model with the label border it was saved with
+	 */
+	public static class StoredModel {
+		private final IMLModel _model;
+		private final float _labelBorder;
+
+		StoredModel(IMLModel model, float labelBorder) {
+			_model = model;
+			_labelBorder = labelBorder;
+		}
+
+		public IMLModel getModel() {
+			return _model;
+		}
+
+		public float getLabelBorder() {
+			return _labelBorder;
+		}
+	}
+
+	public static void save(IMLModel model, List<String> featureNames, File file) throws IOException {
+		save(model, DEFAULT_LABEL_BORDER, featureNames, "", file);
+	}
+
+	public static void save(IMLModel model, float labelBorder, List<String> featureNames, String featureSchema, File file)
+			throws IOException {
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream( new BufferedOutputStream(new FileOutputStream(file)) );
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeFloat(labelBorder);
+			writeString(out, featureSchema);
+
+			if(model instanceof LinearModel) {
+				out.writeByte(TYPE_REGRESSION);
+				writeFeatureNames(out, featureNames);
+				writeDoubles(out, ((LinearModel) model).getParameters());
+			}
+			else if(model instanceof ClusteringKMeansModel) {
+				ClusteringKMeansModel kmeans = (ClusteringKMeansModel) model;
+				out.writeByte(TYPE_FUZZY_KMEANS);
+				writeFeatureNames(out, featureNames);
+				out.writeDouble(kmeans.getFuzziness());
+				double[][] centroids = kmeans.getCentroids();
+				float[] labels = kmeans.getCentroidLabels();
+				out.writeInt(centroids.length);
+				for(int i=0; i<centroids.length; ++i) {
+					out.writeFloat(labels[i]);
+					writeDoubles(out, centroids[i]);
+				}
+			}
+			else if(model instanceof GradientBoostedTreesModel) {
+				GradientBoostedTreesModel trees = (GradientBoostedTreesModel) model;
+				out.writeByte(TYPE_GRADIENT_BOOSTED_TREES);
+				writeFeatureNames(out, featureNames);
+				out.writeDouble(trees.getBaseScore());
+				writeInts(out, trees.getTreeRoots());
+				writeInts(out, trees.getFeatureIndex());
+				writeDoubles(out, trees.getThresholds());
+				writeInts(out, trees.getLeft());
+				writeInts(out, trees.getRight());
+				writeDoubles(out, trees.getValues());
+			}
+			else
+				throw new IllegalArgumentException("Unsupported model: " + model.getClass().getName());
+		}
+		finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	public static IMLModel load(File file, List<String> featureNames) throws IOException {
+		return open(file, featureNames, "").getModel();
+	}
+
+	public static StoredModel open(File file, List<String> featureNames, String featureSchema) throws IOException {
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			FileChannel channel = is.getChannel();
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+
+			if(buffer.getInt() != MAGIC)
+				throw new IOException(file + " is not a model file");
+			short version = buffer.getShort();
+			if(version != VERSION && version != VERSION_WITHOUT_FEATURE_SCHEMA && version != VERSION_WITHOUT_LABEL_BORDER)
+				throw new IOException("Unsupported model format version " + version);
+			float labelBorder = version == VERSION_WITHOUT_LABEL_BORDER ? DEFAULT_LABEL_BORDER : buffer.getFloat();
+			String storedFeatureSchema = version == VERSION ? readString(buffer) : "";
+			if( !storedFeatureSchema.equals(featureSchema) )
+				throw new IncompatibleModelException(
+						"Model was trained with feature schema \"" + storedFeatureSchema + "\", expected \"" + featureSchema + "\"");
+
+			byte type = buffer.get();
+			List<String> storedFeatureNames = readFeatureNames(buffer);
+			if( !storedFeatureNames.equals(featureNames) )
+				throw new IncompatibleModelException(
+						"Model was trained with features " + storedFeatureNames + ", expected " + featureNames);
+
+			switch (type) {
+			case TYPE_REGRESSION:
+				return new StoredModel( new RegressionModel(readDoubles(buffer)), labelBorder );
+
+			case TYPE_FUZZY_KMEANS:
+				double fuzziness = buffer.getDouble();
+				int k = buffer.getInt();
+				double[][] centroids = new double[k][];
+				float[] labels = new float[k];
+				for(int i=0; i<k; ++i) {
+					labels[i] = buffer.getFloat();
+					centroids[i] = readDoubles(buffer);
+				}
+				return new StoredModel( new ClusteringKMeansModel(fuzziness, centroids, labels), labelBorder );
+
+			case TYPE_GRADIENT_BOOSTED_TREES:
+				double baseScore = buffer.getDouble();
+				int[] treeRoots = readInts(buffer);
+				int[] featureIndex = readInts(buffer);
+				double[] thresholds = readDoubles(buffer);
+				int[] left = readInts(buffer);
+				int[] right = readInts(buffer);
+				double[] values = readDoubles(buffer);
+				return new StoredModel(
+						new GradientBoostedTreesModel(baseScore, treeRoots, featureIndex, thresholds, left, right, values),
+						labelBorder );
+
+			default:
+				throw new IOException("Unknown model type " + type);
+			}
+		}
+		finally {
+			if(is != null)
+				is.close();
+		}
+	}
+
+	private static void writeFeatureNames(DataOutputStream out, List<String> featureNames) throws IOException {
+		out.writeInt(featureNames.size());
+		for(String name : featureNames)
+			writeString(out, name);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static List<String> readFeatureNames(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		List<String> names = new ArrayList<String>(count);
+		for(int i=0; i<count; ++i)
+			names.add( readString(buffer) );
+		return names;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for(double value : values)
+			out.writeDouble(value);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for(int value : values)
+			out.writeInt(value);
+	}
+
+	private static int[] readInts(ByteBuffer buffer) {
+		int[] values = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * values.length);
+		return values;
+	}
+
+	private static double[] readDoubles(ByteBuffer buffer) {
+		double[] values = new double[buffer.getInt()];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * values.length);
+		return values;
+	}
+}
@@ -0,0 +1,90 @@
+package trifonov.stanislav.ml;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Streaming accumulator of X<sup>T</sup>X and X<sup>T</sup>y for least squares without intercept.
+ * Memory is O(p<sup>2</sup>) regardless of the number of observations.
+ * Partial sums built by separate threads are combined with {@link #merge(NormalEquations)}.
+ */
+public class NormalEquations {
+
+	private final int _featuresCount;
+	private final double[] _xtx;
+	private final double[] _xty;
+	private long _observationsCount = 0;
+
+	public NormalEquations(int featuresCount) {
+		_featuresCount = featuresCount;
+		_xtx = new double[featuresCount * featuresCount];
+		_xty = new double[featuresCount];
+	}
+
+	public int getFeaturesCount() {
+		return _featuresCount;
+	}
+
+	public long getObservationsCount() {
+		return _observationsCount;
+	}
+
+	public void add(double[] x, double y) {
+		add(x, 0, y);
+	}
+
+	/**
+	 * Adds the row starting at <code>offset</code> of a row-major block.
+	 * Only the upper triangle of X<sup>T</sup>X is accumulated.
+	 */
+	public void add(double[] rows, int offset, double y) {
+		final int p = _featuresCount;
+		for(int i=0; i<p; ++i) {
+			final double xi = rows[offset+i];
+			if(xi == 0)
+				continue;
+
+			final int rowStart = i*p;
+			for(int j=i; j<p; ++j)
+				_xtx[rowStart+j] += xi * rows[offset+j];
+			_xty[i] += xi * y;
+		}
+		++_observationsCount;
+	}
+
+	public void merge(NormalEquations other) {
+		if(other._featuresCount != _featuresCount)
+			throw new IllegalArgumentException(
+					"Features count mismatch: " + other._featuresCount + " != " + _featuresCount);
+
+		for(int i=0; i<_xtx.length; ++i)
+			_xtx[i] += other._xtx[i];
+		for(int i=0; i<_xty.length; ++i)
+			_xty[i] += other._xty[i];
+		_observationsCount += other._observationsCount;
+	}
+
+	/**
+	 * Solves (X<sup>T</sup>X + ridge*I) b = X<sup>T</sup>y with a Cholesky decomposition.
+	 * @param ridge L2 penalty added to the diagonal, 0 for plain least squares
+	 * @return the regression parameters b
+	 */
+	public double[] solve(double ridge) {
+		final int p = _featuresCount;
+		RealMatrix a = new Array2DRowRealMatrix(p, p);
+		for(int i=0; i<p; ++i) {
+			for(int j=i; j<p; ++j) {
+				double value = _xtx[i*p+j];
+				if(i == j)
+					value += ridge;
+				a.setEntry(i, j, value);
+				a.setEntry(j, i, value);
+			}
+		}
+
+		CholeskyDecomposition cholesky = new CholeskyDecomposition(a);
+		return cholesky.getSolver().solve( new ArrayRealVector(_xty, false) ).toArray();
+	}
+}
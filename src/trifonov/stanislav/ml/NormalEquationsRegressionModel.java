@@ -0,0 +1,39 @@
+package trifonov.stanislav.ml;
+
+/**
+ * Linear regression (no intercept) trained by streaming the observations into
+ * {@link NormalEquations} instead of keeping the whole design matrix for a QR decomposition.
+ * Training is a single pass with constant memory; the p x p system is solved at {@link #build()}.
+ */
+public class NormalEquationsRegressionModel extends LinearModel {
+
+	private final double _ridge;
+	private NormalEquations _normalEquations = null;
+
+	public NormalEquationsRegressionModel() {
+		this(0);
+	}
+
+	/**
+	 * @param ridge L2 regularization added to the diagonal of X<sup>T</sup>X
+	 */
+	public NormalEquationsRegressionModel(double ridge) {
+		_ridge = ridge;
+	}
+
+	@Override
+	public void feedData(double[] data, float label) {
+		if(_normalEquations == null)
+			_normalEquations = new NormalEquations(data.length);
+
+		_normalEquations.add(data, label);
+	}
+
+	@Override
+	public void build() {
+		if(_normalEquations != null && _normalEquations.getObservationsCount() > 0) {
+			setParameters( _normalEquations.solve(_ridge) );
+			_normalEquations = null;
+		}
+	}
+}
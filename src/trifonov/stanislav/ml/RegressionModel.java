@@ -6,11 +6,23 @@ import java.util.List;
 import org.apache.commons.math3.stat.regression.AbstractMultipleLinearRegression;
 import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
 
-public class RegressionModel implements IMLModel {
+/**
+ * Ordinary least squares on all the observations, kept until {@link #build()}
+ */
+public class RegressionModel extends LinearModel {
 
 	private final List<double[]> _multipleRegressionData = new ArrayList<double[]>();
 	AbstractMultipleLinearRegression _multipleRegression = new OLSMultipleLinearRegression();
-	double[] _regressionParameters = null;
+	
+	public RegressionModel() {
+	}
+	
+	/**
+	 * Restores an already trained model
+	 */
+	public RegressionModel(double[] regressionParameters) {
+		super(regressionParameters);
+	}
 	
 	@Override
 	public void feedData(double[] data, float label) {
@@ -36,18 +48,7 @@ public class RegressionModel implements IMLModel {
 			_multipleRegressionData.clear();
 		}
 		
- 		_regressionParameters = _multipleRegression.estimateRegressionParameters();
-	}
-
-	@Override
-	public double estimate(double features[]) {
-		
-		
-		double estimation = 0;
-		for (int i = 0; i < features.length; i++)
-			estimation += _regressionParameters[i] * features[i];
-
-		return estimation;
+ 		setParameters( _multipleRegression.estimateRegressionParameters() );
 	}
 
 }
@@ -1,42 +1,60 @@
 package trifonov.stanislav.textmining;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
-
-import com.xeiam.xchart.BitmapEncoder;
-import com.xeiam.xchart.Chart;
-import com.xeiam.xchart.ChartBuilder;
-import com.xeiam.xchart.Histogram;
-import com.xeiam.xchart.BitmapEncoder.BitmapFormat;
-import com.xeiam.xchart.StyleManager.ChartType;
-import com.xeiam.xchart.StyleManager.LegendPosition;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 import trifonov.stanislav.ml.ClusteringKMeansModel;
+import trifonov.stanislav.ml.GradientBoostedTreesModel;
 import trifonov.stanislav.ml.IMLModel;
+import trifonov.stanislav.ml.ModelStore;
+import trifonov.stanislav.ml.NormalEquationsRegressionModel;
 import trifonov.stanislav.ml.RegressionModel;
+import trifonov.stanislav.textmining.eval.CrossValidation;
+import trifonov.stanislav.textmining.eval.PitEvaluator;
+import trifonov.stanislav.textmining.eval.ThresholdSweep;
 import trifonov.stanislav.textmining.feature.Feature;
 import trifonov.stanislav.textmining.feature.FeaturesExtractor;
+import trifonov.stanislav.textmining.feature.MemoizedOovStrategy;
+import trifonov.stanislav.textmining.feature.OovStrategy;
+import trifonov.stanislav.textmining.feature.SentenceCache;
+import trifonov.stanislav.textmining.io.PairRecords;
+import trifonov.stanislav.textmining.io.PredictionWriter;
+import trifonov.stanislav.textmining.metrics.LatencyHistogram;
+import trifonov.stanislav.textmining.metrics.Metrics;
+import trifonov.stanislav.textmining.report.ChartReport;
+import trifonov.stanislav.textmining.report.ConsoleReport;
+import trifonov.stanislav.textmining.report.CsvReport;
+import trifonov.stanislav.textmining.report.NoReport;
+import trifonov.stanislav.textmining.report.ReportSink;
 
 /**
  * A system that solves Semeval 2015 Task 1 - Paraphrase and Semantic Similarity in Twitter (PIT-2015)
@@ -45,39 +63,121 @@ import trifonov.stanislav.textmining.feature.FeaturesExtractor;
  *
  */
 public class PIT2015 {
-	private static final float LABEL_PREDICTION_BORDER = 0.4f;
+	/** estimations from it up are paraphrases, unless the model comes with a tuned border */
+	public static final float LABEL_PREDICTION_BORDER = ModelStore.DEFAULT_LABEL_BORDER;
 	private final static long ONE_GB = 1024 * 1024 * 1024;
+	private static final int ESTIMATION_BATCH_SIZE = 1024;
+	private static final int SENTENCE_CACHE_SIZE = 100000;
+	/** topics waiting for or in feature extraction, per {@link #setTopicPartitioning(int) thread} */
+	private static final int TOPICS_AHEAD_PER_THREAD = 4;
+	/** estimation batches waiting for the {@link PredictionWriter} */
+	private static final int OUTPUT_QUEUE_CAPACITY = 16;
+	private static final int CROSS_VALIDATION_FOLDS = 5;
+	private static final int CHART_BINS = 100;
+	private static final int ESTIMATION_HISTOGRAM_BINS = 200;
+	
+	private static final LatencyHistogram WORD2VEC_LOAD_LATENCY = Metrics.latency("load.word2vec");
+	private static final LatencyHistogram TRAIN_LATENCY = Metrics.latency("train");
+	private static final LatencyHistogram EVALUATE_LATENCY = Metrics.latency("evaluate");
+	/** per batch of up to {@link #ESTIMATION_BATCH_SIZE} rows */
+	private static final LatencyHistogram ESTIMATE_LATENCY = Metrics.latency("estimate");
+	private static final LatencyHistogram FLOAT_ESTIMATE_LATENCY = Metrics.latency("estimate.float32");
+	private static final LatencyHistogram FEATURES_CHARTS_LATENCY = Metrics.latency("export.featuresCharts");
+	private static final LongAdder ESTIMATED_ROWS = Metrics.counter("estimate.rows");
 
+	/**
+	 * Arguments: <code>[--float on|off] [--cross-validate on|off]</code>: <code>--float on</code> predicts with
+	 * single precision, see {@link #setFloatPrecision(boolean)}, and <code>--cross-validate on</code> reports a
+	 * {@link #crossValidate(Supplier, int) cross-validation} of every trained model
+	 */
 	public static void main(String[] args) throws IOException, InterruptedException {		
+			boolean floatPrecision = false;
+			boolean crossValidate = false;
+			for(int i=0; i+1<args.length; i+=2) {
+				if( "--float".equals(args[i]) )
+					floatPrecision = "on".equals(args[i+1]);
+				else if( "--cross-validate".equals(args[i]) )
+					crossValidate = "on".equals(args[i+1]);
+				else
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+			
 			File fileTrain = new File(DIRNAME_DATA, FILENAME_TRAIN);
 			File fileTest = new File(DIRNAME_DATA, FILENAME_TEST);
 			File fileTestLabel = new File(DIRNAME_DATA, FILENAME_TEST_LABEL);
 			File fileDev = new File(DIRNAME_DATA, FILENAME_DEV);
 			String outputFileNameFormat = "PIT2015_STAN_01_%s.output";
+			String modelFileNameFormat = "PIT2015_STAN_01_%s.model";
 			
+			Metrics.setEnabled(true);
 			PIT2015 pit2015 = new PIT2015();
+			ReportSink report = new ReportSink(
+					new ConsoleReport(),
+					new ChartReport(new File("."), ESTIMATION_HISTOGRAM_BINS),
+					new CsvReport(new File(DIRNAME_OUTPUT), ESTIMATION_HISTOGRAM_BINS) );
+			pit2015.setReport(report);
+			pit2015.setFloatPrecision(floatPrecision);
+			File fileSubwords = new File(DIRNAME_WORD2VEC_LOCATION, FILENAME_SUBWORD_TABLE);
+			if( fileSubwords.exists() )
+				pit2015.setOovStrategy( new MemoizedOovStrategy(
+						SubwordTable.open(fileSubwords, FeaturesExtractor.LAYER_SIZE), MemoizedOovStrategy.DEFAULT_MAX_SIZE) );
 			pit2015.initW2VModel(fileTrain);
+			pit2015.setTopicPartitioning( Runtime.getRuntime().availableProcessors() );
+			// the models share the extracted features, and the charts and cross-validation use them
+			pit2015.setRetainTrainingData(true);
 
-			Map<String, IMLModel> models = new HashMap<String, IMLModel>();
-			models.put( "regrrun", new RegressionModel() );
-			for(int k=4; k<=4; ++k)
-				models.put( k+"means", new ClusteringKMeansModel(k, 1.1) );
+			// by the threads a model may train on: all for the model itself, one per cross-validation fold
+			// as the folds already run in parallel
+			final int cpus = Runtime.getRuntime().availableProcessors();
+			Map<String, IntFunction<IMLModel>> models = new HashMap<String, IntFunction<IMLModel>>();
+			models.put( "regrrun", threads -> new RegressionModel() );
+			models.put( "normeqrun", threads -> new NormalEquationsRegressionModel(1e-6) );
+			models.put( "gbtrun", threads -> new GradientBoostedTreesModel(threads) );
+			for(int k=4; k<=4; ++k) {
+				final int clustersCount = k;
+				models.put( k+"means", threads -> new ClusteringKMeansModel(clustersCount, 1.1) );
+			}
 			
-			for(Entry<String, IMLModel> entry : models.entrySet()) {
-				System.out.println();
-				System.out.println(entry.getKey());
-				pit2015.setModel( entry.getValue() );
-				pit2015.trainWithDataFile(fileTrain);
+			for(Entry<String, IntFunction<IMLModel>> entry : models.entrySet()) {
+				report.message("");
+				report.message(entry.getKey());
+				pit2015.setReportScope( entry.getKey() );
+				File fileModel = new File(DIRNAME_OUTPUT, String.format(modelFileNameFormat, entry.getKey()));
+				boolean trained = !fileModel.exists();
+				if(!trained) {
+					try {
+						pit2015.loadModel(fileModel);
+					}
+					catch (ModelStore.IncompatibleModelException e) {
+						report.message(e.getMessage() + ", retraining");
+						trained = true;
+					}
+				}
+				if(trained) {
+					pit2015.setModel( entry.getValue().apply(cpus) );
+					pit2015.trainWithDataFile(fileTrain);
+					if(crossValidate)
+						report.message( pit2015.crossValidate(
+								() -> entry.getValue().apply(1), CROSS_VALIDATION_FOLDS).toString() );
+				}
+				// a new model gets the best label border on the dev data, saved along with it
+				pit2015.setTuneLabelBorder(trained);
 				pit2015.evaluate(fileDev);
+				if(trained)
+					pit2015.saveModel(fileModel);
 				File fileOutput = new File(DIRNAME_OUTPUT, String.format(outputFileNameFormat, entry.getKey()));
 				pit2015.predictAndExport(fileTest, fileOutput);
-				PIT2015.evalWithScripts(fileTestLabel, fileOutput);
+				pit2015.evalOutput(fileTestLabel, fileOutput);
 				
 //				System.out.println(String.format("entropy: %.3f \tpurity: %.3f", model.getEntropy(), model.getPurity()));
 //				System.out.println( String.format("clustering score: %.3f", model.evaluate()) );
 			}
 			
-			exportFeaturesCharts(pit2015._trainingPairData);
+			pit2015.setReportScope(null);
+			pit2015.exportFeaturesCharts(fileTrain);
+			report.close();
+			Metrics.export( new File(DIRNAME_OUTPUT, "metrics.json") );
+			Metrics.export( new File(DIRNAME_OUTPUT, "metrics.prom") );
 	}
 	
 	public static class FeatureMap extends HashMap<String, Double> {
@@ -90,6 +190,8 @@ public class PIT2015 {
 	public static final String FILENAME_TEST_LABEL = "test.label";
 	public static final String FILENAME_TOKENIZER_MODEL = "en-token.bin";
 	public static final String FILENAME_WORD2VEC_BIN = "GoogleNews-vectors-negative300.bin";
+	/** built from the word2vec file by {@link SubwordTable#main(String[])} */
+	public static final String FILENAME_SUBWORD_TABLE = "GoogleNews-subwords.bin";
 	
 	public static final String DIRNAME_DATA = "../SemEval-PIT2015-github/data";
 	public static final String DIRNAME_OUTPUT = "../output";
@@ -107,8 +209,57 @@ public class PIT2015 {
     
     private IMLModel _model;
     private FeaturesExtractor _featuresExtractor;
+    private SentenceCache _sentences;
 	private final List<PairData> _trainingPairData = new ArrayList<PairData>();
+	private boolean _retainTrainingData = false;
 	private Map<String, float[]> _word2vecs;
+	private boolean _floatPrecision = false;
+	private int _topicThreads = 0;
+	private float _labelBorder = LABEL_PREDICTION_BORDER;
+	private boolean _tuneLabelBorder = false;
+	private ReportSink _report = new ReportSink( new NoReport() );
+	private String _reportScope = null;
+	private OovStrategy _oovStrategy = FeaturesExtractor.DEFAULT_OOV_STRATEGY;
+	
+	/**
+	 * Counts of true positives, false positives and false negatives
+	 * for a label border; debatable pairs are ignored
+	 */
+	private static class Confusion {
+		final float _labelBorder;
+		int _truePositives = 0;
+		int _falsePositives = 0;
+		int _falseNegatives = 0;
+		
+		Confusion(float labelBorder) {
+			_labelBorder = labelBorder;
+		}
+		
+		void add(float labelValue, double estimation) {
+			if(labelValue >= PairData.LABEL_PARAPHRASE06) {
+				if(estimation >= _labelBorder)
+					_truePositives++;
+				else
+					_falseNegatives++;
+			}
+			else if( labelValue < PairData.LABEL_DEBATABLE ) {
+				if(estimation >= _labelBorder)
+					_falsePositives++;
+			}
+		}
+		
+		float precision() {
+			return _truePositives / (float)(_truePositives+_falsePositives);
+		}
+		
+		float recall() {
+			return _truePositives / (float)(_truePositives+_falseNegatives);
+		}
+		
+		float f1() {
+			return 2 * precision() * recall() / (precision() + recall());
+		}
+	}
 	
 	public PIT2015() {
 		LABEL_TYPE.put("(5, 0)", PairData.LABEL_PARAPHRASE10);
@@ -128,67 +279,293 @@ public class PIT2015 {
 		
 	}
 	
-	private void setModel(IMLModel model) {
+	public void setModel(IMLModel model) {
 		_model = model;
+		_labelBorder = LABEL_PREDICTION_BORDER;
+	}
+	
+	/**
+	 * Make {@link #evaluate(File)} pick the label border with the best F1 on the evaluated data,
+	 * used from then on and {@link #saveModel(File) saved} with the model
+	 */
+	public void setTuneLabelBorder(boolean tuneLabelBorder) {
+		_tuneLabelBorder = tuneLabelBorder;
+	}
+	
+	public float getLabelBorder() {
+		return _labelBorder;
+	}
+	
+	/**
+	 * Where the progress, the evaluation results and the estimations histogram go; nowhere by default.
+	 * The caller closes the sink.
+	 */
+	public void setReport(ReportSink report) {
+		_report = report;
+	}
+	
+	public ReportSink getReport() {
+		return _report;
+	}
+	
+	/**
+	 * Prefixes the names of the reported metrics and histograms, e.g. with the name of the model
+	 * when several models report to one sink; null for no prefix
+	 */
+	public void setReportScope(String scope) {
+		_reportScope = scope;
+	}
+	
+	private String reportName(String name) {
+		return _reportScope == null ? name : _reportScope + "." + name;
+	}
+	
+	/**
+	 * The vectors of the words that aren't in the word2vec model. A model is trained and used with the same one.
+	 */
+	public void setOovStrategy(OovStrategy oovStrategy) {
+		_oovStrategy = oovStrategy;
+		_featuresExtractor = null;
+	}
+	
+	/**
+	 * Keeps the pairs of the first {@link #trainWithDataFile(File) training}: later trainings (of other
+	 * models) use them instead of extracting the features again, as do {@link #crossValidate(Supplier, int)}
+	 * and the features charts. Otherwise training streams the pairs into the model one at a time, and its
+	 * memory only depends on the model.
+	 */
+	public void setRetainTrainingData(boolean retainTrainingData) {
+		_retainTrainingData = retainTrainingData;
+		if(!retainTrainingData)
+			_trainingPairData.clear();
+	}
+	
+	/**
+	 * Score with single precision features and model parameters in {@link #predictAndExport(File, File)}.
+	 * {@link #evaluate(File)} always reports both precisions.
+	 */
+	public void setFloatPrecision(boolean floatPrecision) {
+		_floatPrecision = floatPrecision;
+	}
+	
+	/**
+	 * Extracts the features of the topics of a data file in parallel, a topic being a run of consecutive
+	 * pairs with the same {@link #COLUMN_INDEX_TOPICID topic id} (the data files are grouped by topic),
+	 * each with its own sentence and word similarity caches which are dropped when the topic is done.
+	 * Only a few topics per thread are read ahead and results keep the order of the file.
+	 * @param threads 0 to extract the features one pair after another in file order
+	 */
+	public void setTopicPartitioning(int threads) {
+		_topicThreads = threads;
+	}
+	
+	public void saveModel(File modelFile) throws IOException {
+		ModelStore.save(_model, _labelBorder, FeaturesExtractor.FEATURE_NAMES,
+				FeaturesExtractor.getFeatureSchema(_oovStrategy), modelFile);
+	}
+	
+	/**
+	 * @throws ModelStore.IncompatibleModelException if the model was trained with other features,
+	 * e.g. of an older version or with another {@link #setOovStrategy(OovStrategy) OOV strategy}
+	 */
+	public void loadModel(File modelFile) throws IOException {
+		ModelStore.StoredModel storedModel = ModelStore.open(modelFile, FeaturesExtractor.FEATURE_NAMES,
+				FeaturesExtractor.getFeatureSchema(_oovStrategy));
+		_model = storedModel.getModel();
+		_labelBorder = storedModel.getLabelBorder();
 	}
 	
-	private void feed(double data[], float label) {
-		_model.feedData(data, label);
+	private void feed(PairData pd) {
+		double x[] = new double[pd.getFeatures().size()];
+		copyFeatures(pd, x, 0);
+		_model.feedData(x, pd.getLabel());
 	}
 	
-	private double estimate(double data[]) {
-		return _model.estimate(data);
+	private static void copyFeatures(PairData pd, double rows[], int offset) {
+		List<Feature> features = pd.getFeatures();
+		for (int i = 0; i < features.size(); i++)
+			rows[offset+i] = features.get(i)._featureValue.doubleValue();
+	}
+	
+	private static void copyFeatures(PairData pd, float rows[], int offset) {
+		List<Feature> features = pd.getFeatures();
+		for (int i = 0; i < features.size(); i++)
+			rows[offset+i] = features.get(i)._featureValue.floatValue();
 	}
 	
 	private PairData pairData(String s1Tags, String s2Tags, String label) throws IOException {
-		if(_featuresExtractor == null)
-			_featuresExtractor = new FeaturesExtractor(s1Tags, s2Tags, _word2vecs);
-		else
-			_featuresExtractor.init(s1Tags, s2Tags);
+		if(_featuresExtractor == null) {
+			_featuresExtractor = new FeaturesExtractor(_word2vecs);
+			_featuresExtractor.setOovStrategy(_oovStrategy);
+			// the features don't use the sentences' embeddings
+			_sentences = new SentenceCache(null, SENTENCE_CACHE_SIZE);
+		}
+		_featuresExtractor.init( _sentences.get(s1Tags), _sentences.get(s2Tags) );
 		
-		List<Feature> features = new ArrayList<Feature>();
-		features.add(_featuresExtractor.getWordOrderSimilarity());
-		features.add(_featuresExtractor.getSemanticSimilarity());
-		features.add(_featuresExtractor.getWord2VecFeature());
-		features.add(_featuresExtractor.getW2VSSFeature());
-		features.add(_featuresExtractor.getW2VCosSimFeature());
+		List<Feature> features = _featuresExtractor.getFeatures();
 		
-		features.add(_featuresExtractor.get1gramPrecision());
-		features.add(_featuresExtractor.get1gramRecall());
-		features.add(_featuresExtractor.get1gramF1());
-		features.add(_featuresExtractor.get1gramStemPrecision());
-		features.add(_featuresExtractor.get1gramStemRecall());
-		features.add(_featuresExtractor.get1gramStemF1());
+		return new PairData(LABEL_TYPE.get(label), features);
+	}
+	
+	/**
+	 * The pairs of a data file, in file order
+	 * @param skipDebatable leave out the pairs labeled as {@link PairData#LABEL_DEBATABLE}
+	 */
+	private Iterator<PairData> pairData(final PairRecords records, final boolean skipDebatable) throws IOException {
+		if(_topicThreads > 0)
+			return new TopicPairData(records, skipDebatable);
 		
-		features.add(_featuresExtractor.get2gramPrecision());
-		features.add(_featuresExtractor.get2gramRecall());
-		features.add(_featuresExtractor.get2gramF1());
-		features.add(_featuresExtractor.get2gramStemPrecision());
-		features.add(_featuresExtractor.get2gramStemRecall());
-		features.add(_featuresExtractor.get2gramStemF1());
+		return new Iterator<PairData>() {
+			private String[] _next = readColumns(records, skipDebatable);
+			
+			@Override
+			public boolean hasNext() {
+				return _next != null;
+			}
+			
+			@Override
+			public PairData next() {
+				if(_next == null)
+					throw new NoSuchElementException();
+				try {
+					PairData pd = pairData(_next[COLUMN_INDEX_SENT1TAG], _next[COLUMN_INDEX_SENT2TAG], _next[COLUMN_INDEX_LABEL]);
+					_next = readColumns(records, skipDebatable);
+					return pd;
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Features of the runs of consecutive pairs with the same {@link #COLUMN_INDEX_TOPICID topic}, extracted
+	 * in parallel while at most {@link #TOPICS_AHEAD_PER_THREAD} topics per thread are read ahead of the
+	 * consumer, so memory doesn't grow with the file. Pairs come out in file order.
+	 */
+	private class TopicPairData implements Iterator<PairData> {
+		private final PairRecords _records;
+		private final boolean _skipDebatable;
+		private final ExecutorService _executor;
+		private final Deque<Future<List<PairData>>> _topics = new ArrayDeque<Future<List<PairData>>>();
+		/** the first pair of the next topic, already read */
+		private String[] _nextColumns;
+		private Iterator<PairData> _topic = Collections.<PairData>emptyList().iterator();
 		
-		features.add(_featuresExtractor.get3gramPrecision());
-		features.add(_featuresExtractor.get3gramRecall());
-		features.add(_featuresExtractor.get3gramF1());
-		features.add(_featuresExtractor.get3gramStemPrecision());
-		features.add(_featuresExtractor.get3gramStemRecall());
-		features.add(_featuresExtractor.get3gramStemF1());
+		TopicPairData(PairRecords records, boolean skipDebatable) throws IOException {
+			_records = records;
+			_skipDebatable = skipDebatable;
+			_executor = Executors.newFixedThreadPool(_topicThreads, runnable -> {
+				Thread thread = new Thread(runnable, "topic-features");
+				thread.setDaemon(true);
+				return thread;
+			} );
+			try {
+				_nextColumns = readColumns(records, skipDebatable);
+				readAhead();
+			}
+			catch (IOException | RuntimeException e) {
+				_executor.shutdownNow();
+				throw e;
+			}
+		}
 		
-		return new PairData(LABEL_TYPE.get(label), features);
+		private void readAhead() throws IOException {
+			while( _nextColumns != null && _topics.size() < _topicThreads * TOPICS_AHEAD_PER_THREAD ) {
+				final List<String[]> lines = new ArrayList<String[]>();
+				String topicId = _nextColumns[COLUMN_INDEX_TOPICID];
+				do {
+					lines.add(_nextColumns);
+					_nextColumns = readColumns(_records, _skipDebatable);
+				} while( _nextColumns != null && topicId.equals(_nextColumns[COLUMN_INDEX_TOPICID]) );
+				
+				_topics.add( _executor.submit( () -> topicPairData(lines) ) );
+			}
+			// the submitted topics still run
+			if(_nextColumns == null)
+				_executor.shutdown();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			try {
+				while( !_topic.hasNext() && !_topics.isEmpty() ) {
+					_topic = _topics.poll().get().iterator();
+					readAhead();
+				}
+				return _topic.hasNext();
+			}
+			catch (InterruptedException e) {
+				_executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new UncheckedIOException( new InterruptedIOException("Interrupted while extracting features") );
+			}
+			catch (ExecutionException e) {
+				_executor.shutdownNow();
+				if(e.getCause() instanceof IOException)
+					throw new UncheckedIOException( (IOException) e.getCause() );
+				throw new IllegalStateException(e.getCause());
+			}
+			catch (IOException e) {
+				_executor.shutdownNow();
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		@Override
+		public PairData next() {
+			if( !hasNext() )
+				throw new NoSuchElementException();
+			return _topic.next();
+		}
+	}
+	
+	/**
+	 * The pairs of one topic, with sentence and word similarity caches dropped when the topic is done
+	 */
+	private List<PairData> topicPairData(List<String[]> lines) throws IOException {
+		FeaturesExtractor featuresExtractor = new FeaturesExtractor(_word2vecs);
+		featuresExtractor.setWordSimilarityCache( new HashMap<String, Double>() );
+		featuresExtractor.setOovStrategy(_oovStrategy);
+		SentenceCache sentences = new SentenceCache(null, lines.size() * 2);
+		List<PairData> pairsData = new ArrayList<PairData>(lines.size());
+		for(String line[] : lines) {
+			featuresExtractor.init(
+					sentences.get(line[COLUMN_INDEX_SENT1TAG]),
+					sentences.get(line[COLUMN_INDEX_SENT2TAG]) );
+			pairsData.add( new PairData( LABEL_TYPE.get(line[COLUMN_INDEX_LABEL]), featuresExtractor.getFeatures() ) );
+		}
+		return pairsData;
+	}
+	
+	private static String[] readColumns(PairRecords records, boolean skipDebatable) throws IOException {
+		String columns[];
+		while( (columns = records.next()) != null ) {
+			if( !skipDebatable || LABEL_TYPE.get(columns[COLUMN_INDEX_LABEL]) != PairData.LABEL_DEBATABLE )
+				return columns;
+		}
+		return null;
 	}
 	
 	public Map<String, float[]> load_word2vec_fromFile(Collection<String> words) throws IOException {
+		return load_word2vec_fromFile(
+				new File(DIRNAME_WORD2VEC_LOCATION, FILENAME_WORD2VEC_BIN),
+				words );
+	}
+	
+	/**
+	 * Reads the vectors of the given words from a word2vec binary file
+	 */
+	public Map<String, float[]> load_word2vec_fromFile(File inFile, Collection<String> words) throws IOException {
 		Map<String, float[]> word2vecs = new HashMap<String, float[]>();
 		
-		File inFile = new File(
-				DIRNAME_WORD2VEC_LOCATION,
-				FILENAME_WORD2VEC_BIN );
-		
 		FileInputStream is = null;
 		try {
 			is = new FileInputStream(inFile);
 			final FileChannel channel = is.getChannel();
-			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, Integer.MAX_VALUE);
+			// files under 2GB are mapped as a whole, not beyond their end
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
 			buffer.order(ByteOrder.LITTLE_ENDIAN);
 			int bufferCount = 1;
 			
@@ -205,10 +582,11 @@ public class PIT2015 {
 			final int vocabSize = Integer.parseInt(firstLine.substring(0, index));
 			final int layerSize = Integer.parseInt(firstLine.substring(index + 1));
 			
-			System.out.println( vocabSize + " " + layerSize);
+			_report.message( vocabSize + " " + layerSize);
 
 			final float[] floats = new float[layerSize];
 			long start = System.currentTimeMillis();
+			long loadStart = Metrics.start();
 			
 			for(int lineNumber = 0; lineNumber < vocabSize; ++lineNumber) {
 				sb.setLength(0);
@@ -237,7 +615,7 @@ public class PIT2015 {
 				if (buffer.position() > ONE_GB) {
 					final int newPosition = (int) (buffer.position() - ONE_GB);
 					final long size = Math.min(channel.size() - ONE_GB * bufferCount, Integer.MAX_VALUE);
-					System.out.println(
+					_report.message(
 							String.format(
 									"Reading gigabyte #%d. Start: %d, size: %d",
 									bufferCount,
@@ -250,8 +628,12 @@ public class PIT2015 {
 				}
 			}
 			
-			System.out.println("Loading " + words.size() + " word2vecs took " + (System.currentTimeMillis()-start) + "ms.");
-			System.out.println("" + word2vecs.size() + " word2vecs found");
+			WORD2VEC_LOAD_LATENCY.recordSince(loadStart);
+			long millis = System.currentTimeMillis() - start;
+			_report.message("Loading " + words.size() + " word2vecs took " + millis + "ms.");
+			_report.message("" + word2vecs.size() + " word2vecs found");
+			_report.metric(reportName("word2vec.millis"), millis);
+			_report.metric(reportName("word2vec.found"), word2vecs.size());
 		}
 		finally {
 			is.close();
@@ -268,15 +650,20 @@ public class PIT2015 {
 	 * @throws InterruptedException
 	 */
 	public void initW2VModel(File dataFile) throws IOException, InterruptedException {
-		BufferedReader reader = null;
+		initW2VModel(dataFile, new File(DIRNAME_WORD2VEC_LOCATION, FILENAME_WORD2VEC_BIN));
+	}
+	
+	/**
+	 * Loads the vectors of the data file's words from the given word2vec binary file
+	 */
+	public void initW2VModel(File dataFile, File word2vecFile) throws IOException, InterruptedException {
+		PairRecords records = null;
 		try {
-			reader = new BufferedReader( new FileReader(dataFile) );
-			String lineInFile = null;
+			records = PairRecords.open(dataFile);
+			String[] columns;
 			Set<String> words = new HashSet<String>();
 			
-			while( (lineInFile=reader.readLine()) != null ) {
-				String[] columns = lineInFile.split("\t");
-
+			while( (columns=records.next()) != null ) {
 				String tags[] = columns[COLUMN_INDEX_SENT1TAG].split(" ");
 				for(int i=0; i<tags.length; ++i)
 					words.add( tags[i].substring(0, tags[i].indexOf('/')) );
@@ -286,279 +673,373 @@ public class PIT2015 {
 					words.add( tags[i].substring(0, tags[i].indexOf('/')) );
 			}
 			
-			_word2vecs = load_word2vec_fromFile(words);
+			_word2vecs = load_word2vec_fromFile(word2vecFile, words);
 			
 		}
 		finally {
-			reader.close();
+			if(records != null)
+				records.close();
 		}
 	}
 	
 	public void trainWithDataFile(File dataFile) throws IOException {
 		long start = System.currentTimeMillis();
+		long trainStart = Metrics.start();
 //		_trainingPairData.clear();
-		if(_trainingPairData == null || _trainingPairData.isEmpty()) {
-			BufferedReader reader = null;
+		int pairsCount = 0;
+		if(_retainTrainingData && !_trainingPairData.isEmpty()) {
+			for(PairData pd : _trainingPairData)
+				feed(pd);
+			pairsCount = _trainingPairData.size();
+		}
+		else {
+			PairRecords records = null;
 			try {
-				reader = new BufferedReader( new FileReader(dataFile) );
-				String lineInFile = null;
-				
-				while( (lineInFile=reader.readLine()) != null ) {
-					String[] columns = lineInFile.split("\t");
-					String label = columns[COLUMN_INDEX_LABEL];
-					String tags1 = columns[COLUMN_INDEX_SENT1TAG];
-					String tags2 = columns[COLUMN_INDEX_SENT2TAG];
-					
-					if(LABEL_TYPE.get(label) == PairData.LABEL_DEBATABLE)
-						continue;
-					
-					PairData pd = pairData(tags1, tags2, label);
-					_trainingPairData.add( pd );
+				records = PairRecords.open(dataFile);
+				Iterator<PairData> pairs = pairData(records, true);
+				while( pairs.hasNext() ) {
+					PairData pd = pairs.next();
+					if(_retainTrainingData)
+						_trainingPairData.add(pd);
+					feed(pd);
+					++pairsCount;
 				}
-				
 			} finally {
-				if(reader != null)
-					reader.close();
+				if(records != null)
+					records.close();
 			}
 		}
 		
-		for(PairData pd : _trainingPairData) {
-			List<Feature> features = pd.getFeatures();
-			double x[] = new double[features.size()];
-			for (int i = 0; i < features.size(); i++)
-				x[i] = features.get(i)._featureValue.doubleValue();
-			feed(x, pd.getLabel());
-		}
-		
 		_model.build();
 		
+		TRAIN_LATENCY.recordSince(trainStart);
 		long end = System.currentTimeMillis();
-		System.out.println("Trained in " + (end-start) + "ms." + "\tItems found: " + _trainingPairData.size());
+		if(_model instanceof ClusteringKMeansModel) {
+			double purities[] = ((ClusteringKMeansModel) _model).getPurities();
+			StringBuilder line = new StringBuilder();
+			for(int i=0; i<purities.length; ++i) {
+				line.append( String.format("%.5f", purities[i]) ).append(' ');
+				_report.metric(reportName("train.purity." + i), purities[i]);
+			}
+			_report.message( line.toString() );
+		}
+		_report.message("Trained in " + (end-start) + "ms." + "\tItems found: " + pairsCount);
+		_report.metric(reportName("train.millis"), end-start);
+		_report.metric(reportName("train.pairs"), pairsCount);
+	}
+	
+	/**
+	 * Cross-validates models from the factory on the pairs {@link #trainWithDataFile(File) trained} with,
+	 * one fold per available thread at a time, so the factory's models better train on a single thread.
+	 * The folds label at the fixed {@link #LABEL_PREDICTION_BORDER}, not at the border tuned on the dev data.
+	 * Needs the {@link #setRetainTrainingData(boolean) retained} pairs.
+	 */
+	public CrossValidation.Report crossValidate(Supplier<IMLModel> modelFactory, int foldsCount) {
+		if( _trainingPairData.isEmpty() )
+			throw new IllegalStateException("No training pairs retained to cross-validate with");
+		double rows[][] = new double[_trainingPairData.size()][];
+		float labels[] = new float[rows.length];
+		for(int i=0; i<rows.length; ++i) {
+			PairData pd = _trainingPairData.get(i);
+			rows[i] = new double[pd.getFeatures().size()];
+			copyFeatures(pd, rows[i], 0);
+			labels[i] = pd.getLabel();
+		}
+		
+		CrossValidation crossValidation = new CrossValidation(
+				foldsCount, Math.min(foldsCount, Runtime.getRuntime().availableProcessors()), 1);
+		return crossValidation.run(modelFactory, rows, labels, LABEL_PREDICTION_BORDER);
 	}
 	
 	public void evaluate(File testData) throws IOException {
-		BufferedReader dataReader = null;
-		List<Double> estimations = new ArrayList<Double>();
-		List<Float> labels = new ArrayList<Float>();
+		PairRecords dataRecords = null;
+		// all estimations, for the histogram of the report
+		double estimations[] = _report.isActive() ? new double[ESTIMATION_BATCH_SIZE] : null;
+		int estimationsCount = 0;
 		
 		long start = System.currentTimeMillis();
+		long evaluateStart = Metrics.start();
 		
 		try {
-			dataReader = new BufferedReader(new FileReader(testData));
+			dataRecords = PairRecords.open(testData);
 			
-			String dataLine = null, columns[], label, s1tags, s2tags;
-			int truePositives = 0;
-			int falsePositives = 0;
-			int falseNegatives = 0;
+			Iterator<PairData> pairs = pairData(dataRecords, false);
+			PairData pairData = null;
+			Confusion confusion = new Confusion(_labelBorder);
+			Confusion floatConfusion = new Confusion(_labelBorder);
+			// estimations and gold labels of the non debatable pairs, for the threshold sweep
+			double sweepEstimations[] = new double[ESTIMATION_BATCH_SIZE];
+			boolean sweepParaphrases[] = new boolean[ESTIMATION_BATCH_SIZE];
+			int sweepCount = 0;
+			double maxFloatDifference = 0;
 			
-			while( (dataLine=dataReader.readLine()) != null ) {
-				columns = dataLine.split("\t");
-				
-				label = columns[COLUMN_INDEX_LABEL];
-				s1tags = columns[COLUMN_INDEX_SENT1TAG];
-				s2tags = columns[COLUMN_INDEX_SENT2TAG];
-				
-				PairData pairData = pairData(s1tags, s2tags, label);
-				List<Feature> features = pairData.getFeatures();
-				double x[] = new double[features.size()];
-				for (int i = 0; i < x.length; i++)
-					x[i] = features.get(i)._featureValue.doubleValue();
-				
-				double estimation = estimate(x);
-				
-				float labelValue = LABEL_TYPE.get(label);
-				if(labelValue >= PairData.LABEL_PARAPHRASE06) {
-					if(estimation >= LABEL_PREDICTION_BORDER)
-						truePositives++;
-					else if(estimation < PairData.LABEL_DEBATABLE)
-						falseNegatives++;
-				}
-				else if( labelValue < PairData.LABEL_DEBATABLE ) {
-					if(estimation >= LABEL_PREDICTION_BORDER)
-						falsePositives++;
+			final int featuresCount = FeaturesExtractor.FEATURE_NAMES.size();
+			double rows[] = new double[ESTIMATION_BATCH_SIZE * featuresCount];
+			float floatRows[] = new float[ESTIMATION_BATCH_SIZE * featuresCount];
+			double batchEstimations[] = new double[ESTIMATION_BATCH_SIZE];
+			float floatBatchEstimations[] = new float[ESTIMATION_BATCH_SIZE];
+			float batchLabels[] = new float[ESTIMATION_BATCH_SIZE];
+			int rowsCount = 0;
+			
+			do {
+				pairData = pairs.hasNext() ? pairs.next() : null;
+				if(pairData != null) {
+					copyFeatures(pairData, rows, rowsCount*featuresCount);
+					copyFeatures(pairData, floatRows, rowsCount*featuresCount);
+					batchLabels[rowsCount++] = pairData.getLabel();
+					if(rowsCount < ESTIMATION_BATCH_SIZE)
+						continue;
 				}
 				
-				estimations.add(estimation);
-//				if(estimation < PairData.LABEL_NONPARAPHRASE02)
-//					estimations.add((double)PairData.LABEL_NONPARAPHRASE00);
-//				else if(estimation < PairData.LABEL_DEBATABLE)
-//					estimations.add((double)PairData.LABEL_NONPARAPHRASE02);
-//				else if(estimation < PairData.LABEL_PARAPHRASE06)
-//					estimations.add((double)PairData.LABEL_DEBATABLE);
-//				else if(estimation < PairData.LABEL_PARAPHRASE08)
-//					estimations.add((double)PairData.LABEL_PARAPHRASE06);
-//				else if(estimation < PairData.LABEL_PARAPHRASE10)
-//					estimations.add((double)PairData.LABEL_PARAPHRASE08);
-//				else
-//					estimations.add((double)PairData.LABEL_PARAPHRASE10);
+				long estimateStart = Metrics.start();
+				_model.estimate(rows, featuresCount, rowsCount, batchEstimations);
+				ESTIMATE_LATENCY.recordSince(estimateStart);
+				estimateStart = Metrics.start();
+				_model.estimate(floatRows, featuresCount, rowsCount, floatBatchEstimations);
+				FLOAT_ESTIMATE_LATENCY.recordSince(estimateStart);
+				Metrics.count(ESTIMATED_ROWS, rowsCount);
 				
-				labels.add(labelValue);
-//				System.out.println(labelValue +": " + estimation);
-			}
+				for(int i=0; i<rowsCount; ++i) {
+					double estimation = batchEstimations[i];
+					float labelValue = batchLabels[i];
+					confusion.add(labelValue, estimation);
+					floatConfusion.add(labelValue, floatBatchEstimations[i]);
+					maxFloatDifference = Math.max(
+							maxFloatDifference,
+							Math.abs(estimation - floatBatchEstimations[i]) );
+					
+					if(estimations != null) {
+						if(estimationsCount == estimations.length)
+							estimations = Arrays.copyOf(estimations, estimationsCount * 2);
+						estimations[estimationsCount++] = estimation;
+					}
+					
+					if(labelValue == PairData.LABEL_DEBATABLE)
+						continue;
+					if(sweepCount == sweepEstimations.length) {
+						sweepEstimations = Arrays.copyOf(sweepEstimations, sweepCount * 2);
+						sweepParaphrases = Arrays.copyOf(sweepParaphrases, sweepCount * 2);
+					}
+					sweepEstimations[sweepCount] = estimation;
+					sweepParaphrases[sweepCount++] = labelValue >= PairData.LABEL_PARAPHRASE06;
+				}
+				rowsCount = 0;
+			} while(pairData != null);
+			
+			EVALUATE_LATENCY.recordSince(evaluateStart);
+			long millis = System.currentTimeMillis() - start;
 			
-			float precision = truePositives / (float)(truePositives+falsePositives);
-			float recall = truePositives / (float)(truePositives+falseNegatives);
-			float f1 = 2 * precision * recall / (precision + recall);
+			long sweepStart = System.nanoTime();
+			ThresholdSweep sweep = new ThresholdSweep(sweepEstimations, sweepParaphrases, sweepCount);
+			double sweepMillis = (System.nanoTime()-sweepStart)/1e6;
 			
-			System.out.println(
+			_report.message(
 					String.format(
 							"%.3f\t%.3f\t%.3f\ttime:%.3f",
-							f1,
-							precision,
-							recall,
-							(System.currentTimeMillis()-start)/1000f ));
-			
-			Histogram hEstimations = new Histogram(estimations, 200);
-//			Histogram hLabels = new Histogram(labels, 200);
+							confusion.f1(),
+							confusion.precision(),
+							confusion.recall(),
+							millis/1000f ));
+			_report.message(
+					String.format(
+							"%.3f\t%.3f\t%.3f\tfloat32, max difference:%.2e",
+							floatConfusion.f1(),
+							floatConfusion.precision(),
+							floatConfusion.recall(),
+							maxFloatDifference ));
+			_report.message(
+					String.format(
+							"%.3f\t%.3f\t%.3f\tbest label border:%.4f (was %.4f), %d borders swept in %.1fms",
+							sweep.getBestF1(),
+							sweep.getBestPrecision(),
+							sweep.getBestRecall(),
+							sweep.getBestThreshold(),
+							_labelBorder,
+							sweep.size(),
+							sweepMillis ));
+			_report.metric(reportName("evaluate.millis"), millis);
+			_report.metric(reportName("evaluate.f1"), confusion.f1());
+			_report.metric(reportName("evaluate.precision"), confusion.precision());
+			_report.metric(reportName("evaluate.recall"), confusion.recall());
+			_report.metric(reportName("evaluate.float32.f1"), floatConfusion.f1());
+			_report.metric(reportName("evaluate.float32.maxDifference"), maxFloatDifference);
+			_report.metric(reportName("evaluate.labelBorder"), _labelBorder);
+			_report.metric(reportName("evaluate.bestLabelBorder"), sweep.getBestThreshold());
+			_report.metric(reportName("evaluate.bestLabelBorder.f1"), sweep.getBestF1());
+			if(estimations != null)
+				_report.histogram(reportName("Estimations"), estimations, estimationsCount);
 			
-			Chart chart = new ChartBuilder().chartType(ChartType.Bar)
-					.width(800)
-					.height(600)
-					.title("Estimation")
-					.xAxisTitle("Label")
-					.yAxisTitle("Count")
-					.build();
-			chart.addSeries("Estimation", hEstimations.getxAxisData(), hEstimations.getyAxisData());
-//			chart.addSeries("Original", hLabels.getxAxisData(), hLabels.getyAxisData());
-			chart.getStyleManager().setLegendPosition(LegendPosition.InsideNE);
-			chart.getStyleManager().setBarsOverlapped(true);
-	
-			BitmapEncoder.saveBitmap(chart,
-					new File("0-Estimations").getAbsolutePath(),
-					BitmapFormat.PNG);
+			if( _tuneLabelBorder && !Float.isNaN(sweep.getBestThreshold()) )
+				_labelBorder = sweep.getBestThreshold();
 		}
 		finally {
-			if (dataReader!=null)
-				dataReader.close();
+			if (dataRecords!=null)
+				dataRecords.close();
 		}
 	}
 	
 	public void predictAndExport(File dataFile, File outputFile) throws IOException {
-		BufferedReader reader = null;
-		BufferedWriter writer = null;
+		PairRecords records = null;
+		PredictionWriter writer = null;
 		
 		try {
-			reader = new BufferedReader( new FileReader(dataFile) );
-			writer = new BufferedWriter( new FileWriter(outputFile) );
-			String line, columns[], label, s1tags, s2tags;
+			records = PairRecords.open(dataFile);
+			writer = new PredictionWriter(outputFile, _labelBorder, OUTPUT_QUEUE_CAPACITY);
+			Iterator<PairData> pairs = pairData(records, false);
+			PairData pd;
 			
-			while( (line=reader.readLine()) != null ) {
-				columns = line.split("\t");
-				
-				label = columns[COLUMN_INDEX_LABEL];
-				s1tags = columns[COLUMN_INDEX_SENT1TAG];
-				s2tags = columns[COLUMN_INDEX_SENT2TAG];
-				
-				PairData pd = pairData(s1tags, s2tags, label);
-				List<Feature> features = pd.getFeatures();
-				double x[] = new double[features.size()];
-				for (int i = 0; i < x.length; i++)
-					x[i] = features.get(i)._featureValue.doubleValue();
+			final int featuresCount = FeaturesExtractor.FEATURE_NAMES.size();
+			double rows[] = new double[ESTIMATION_BATCH_SIZE * featuresCount];
+			double estimations[] = new double[ESTIMATION_BATCH_SIZE];
+			float floatRows[] = _floatPrecision ? new float[rows.length] : null;
+			float floatEstimations[] = _floatPrecision ? new float[ESTIMATION_BATCH_SIZE] : null;
+			int rowsCount = 0;
+			
+			do {
+				pd = pairs.hasNext() ? pairs.next() : null;
+				if(pd != null) {
+					if(_floatPrecision)
+						copyFeatures(pd, floatRows, (rowsCount++)*featuresCount);
+					else
+						copyFeatures(pd, rows, (rowsCount++)*featuresCount);
+					if(rowsCount < ESTIMATION_BATCH_SIZE)
+						continue;
+				}
 				
 				//838	STAN	01_regrrun		0.612	0.625	0.600		0.525	0.627	0.573	0.691 with regression and (estimation > 0.4f ? true :false) on test.data
-				double estimation = estimate(x);
-				String resultLabel = (estimation >= LABEL_PREDICTION_BORDER ? "true" : "false");
-				String resultScore = 
-						String.format(
-								Locale.US, "%.4f",
-								Math.max( Math.min(estimation, 1.0), 0.0));
-				
-				writer.write(resultLabel + "\t" + resultScore);
-				writer.newLine();
-			}
+				long estimateStart = Metrics.start();
+				if(_floatPrecision) {
+					_model.estimate(floatRows, featuresCount, rowsCount, floatEstimations);
+					FLOAT_ESTIMATE_LATENCY.recordSince(estimateStart);
+					writer.write(floatEstimations, rowsCount);
+				}
+				else {
+					_model.estimate(rows, featuresCount, rowsCount, estimations);
+					ESTIMATE_LATENCY.recordSince(estimateStart);
+					writer.write(estimations, rowsCount);
+				}
+				Metrics.count(ESTIMATED_ROWS, rowsCount);
+				rowsCount = 0;
+			} while(pd != null);
 		}finally {
-			if(reader != null)
-				reader.close();
+			if(records != null)
+				records.close();
 			if(writer != null)
 				writer.close();
 		}
 		
 	}
 	
-	public static void exportFeaturesCharts(List<PairData> pairsData) throws IOException {
-		Map<String, Number> maxFeaturesValues = new HashMap<String, Number>();
-		Map<String, Number> minFeaturesValues = new HashMap<String, Number>();
+	/**
+	 * {@link #exportFeaturesCharts(List) Exports the features charts} of the retained training pairs, or of
+	 * the pairs read from the data file when none were retained - when every model was loaded, not trained.
+	 */
+	public void exportFeaturesCharts(File dataFile) throws IOException {
+		if( !_report.isActive() )
+			return;
+		if( !_trainingPairData.isEmpty() ) {
+			exportFeaturesCharts(_trainingPairData);
+			return;
+		}
 		
-		for(PairData pd : pairsData) {
-			for(Feature f : pd.getFeatures()) {
-				String featureName = f._featureName;
-				float featureValue = f._featureValue.floatValue();
-				
-				if(maxFeaturesValues.get(featureName) == null || maxFeaturesValues.get(featureName).floatValue() < featureValue)
-					maxFeaturesValues.put(featureName, Float.valueOf(featureValue));
-				
-				if(minFeaturesValues.get(featureName) == null || minFeaturesValues.get(featureName).floatValue() > featureValue)
-					minFeaturesValues.put(featureName, Float.valueOf(featureValue));
-			}
+		List<PairData> pairsData = new ArrayList<PairData>();
+		PairRecords records = null;
+		try {
+			records = PairRecords.open(dataFile);
+			Iterator<PairData> pairs = pairData(records, true);
+			while( pairs.hasNext() )
+				pairsData.add( pairs.next() );
+		} finally {
+			if(records != null)
+				records.close();
+		}
+		exportFeaturesCharts(pairsData);
+	}
+	
+	/**
+	 * Reports a histogram of every feature's values for paraphrases and non paraphrases, binned here and
+	 * rendered (or written) by the report's consumers on their own threads. Nothing is done without any.
+	 * The values are copied into columns in one pass over the pairs, then every feature is binned.
+	 */
+	public void exportFeaturesCharts(List<PairData> pairsData) {
+		if( !_report.isActive() )
+			return;
+		if(pairsData.isEmpty()) {
+			_report.message("No pairs, features charts skipped");
+			return;
 		}
 		
 		long start = System.currentTimeMillis();
-		File chartsDir = new File("featuresCharts");
-		chartsDir.mkdirs();
-		for(String key : maxFeaturesValues.keySet()) {
-			List<Number> featureValuesForParaphrases = new ArrayList<Number>();
-			List<Number> featureValuesForNonparaphrases = new ArrayList<Number>();
+		long exportStart = Metrics.start();
+		List<Feature> firstFeatures = pairsData.get(0).getFeatures();
+		final int featuresCount = firstFeatures.size();
+		final int rowsCount = pairsData.size();
+		final double columns[][] = new double[featuresCount][rowsCount];
+		final double minValues[] = new double[featuresCount];
+		final double maxValues[] = new double[featuresCount];
+		Arrays.fill(minValues, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxValues, Double.NEGATIVE_INFINITY);
+		// 1 for paraphrases, -1 for non paraphrases, 0 for the rest
+		final byte classes[] = new byte[rowsCount];
+		
+		for(int row=0; row<rowsCount; ++row) {
+			PairData pd = pairsData.get(row);
+			if(pd.getLabel() > PairData.LABEL_PARAPHRASE06)
+				classes[row] = 1;
+			else if(pd.getLabel() < PairData.LABEL_DEBATABLE)
+				classes[row] = -1;
 			
-			for(PairData pd : pairsData) {
-				Feature f = pd.getFeature(key);
-				if(pd.getLabel() > PairData.LABEL_PARAPHRASE06)
-					featureValuesForParaphrases.add(f._featureValue);
-				else if(pd.getLabel() < PairData.LABEL_DEBATABLE)
-					featureValuesForNonparaphrases.add(f._featureValue);
+			List<Feature> features = pd.getFeatures();
+			for(int f=0; f<featuresCount; ++f) {
+				double value = features.get(f)._featureValue.doubleValue();
+				columns[f][row] = value;
+				minValues[f] = Math.min(minValues[f], value);
+				maxValues[f] = Math.max(maxValues[f], value);
+			}
+		}
+		
+		for(int feature=0; feature<featuresCount; ++feature) {
+			int paraphraseBins[] = new int[CHART_BINS];
+			int nonparaphraseBins[] = new int[CHART_BINS];
+			double min = minValues[feature];
+			double max = maxValues[feature];
+			double binSize = (max - min) / CHART_BINS;
+			for(int row=0; row<rowsCount; ++row) {
+				if(classes[row] == 0)
+					continue;
+				// as com.xeiam.xchart.Histogram: the maximum goes to the last bin
+				double value = columns[feature][row];
+				int bin = binSize > 0 ? Math.min((int) ((value - min) / binSize), CHART_BINS-1) : 0;
+				if(classes[row] > 0)
+					paraphraseBins[bin]++;
+				else
+					nonparaphraseBins[bin]++;
 			}
 			
-			Histogram hParaphrases = new Histogram( featureValuesForParaphrases,
-													100,
-													minFeaturesValues.get(key).doubleValue(),
-													maxFeaturesValues.get(key).doubleValue() );
-			Histogram hNonparaphrases = new Histogram( featureValuesForNonparaphrases,
-													   100,
-													   minFeaturesValues.get(key).doubleValue(),
-													   maxFeaturesValues.get(key).doubleValue() );
-			
-			Chart chart = new ChartBuilder()
-						.chartType(ChartType.Bar)
-						.width(800)
-						.height(600)
-						.title("Feature: " + key)
-						.xAxisTitle(key)
-						.yAxisTitle("Sentence pairs")
-						.build();
-			chart.addSeries("Paraphrases", hParaphrases.getxAxisData(), hParaphrases.getyAxisData());
-			chart.addSeries("Non paraphrases", hNonparaphrases.getxAxisData(), hNonparaphrases.getyAxisData());
-			chart.getStyleManager().setLegendPosition(LegendPosition.InsideNE);
-			chart.getStyleManager().setBarsOverlapped(true);
-
-			BitmapEncoder.saveBitmap(chart,
-					new File(chartsDir, key).getAbsolutePath(),
-					BitmapFormat.PNG);
+			_report.binnedHistogram("feature." + firstFeatures.get(feature)._featureName, min, max,
+					new String[] { "Paraphrases", "Non paraphrases" },
+					new int[][] { paraphraseBins, nonparaphraseBins });
 		}
-		long end = System.currentTimeMillis();
-		System.out.println("Exporting features charts took " + (end-start) + "ms.");
+		
+		FEATURES_CHARTS_LATENCY.recordSince(exportStart);
+		long millis = System.currentTimeMillis() - start;
+		_report.message("Binning features charts took " + millis + "ms.");
+		_report.metric(reportName("featuresCharts.millis"), millis);
 	}
 	
-	public static void evalWithScripts(File testFile, File outputFile) throws IOException {
-		List<String> command = new ArrayList<String>();
-		command.add("python");
-		command.add(DIRNAME_OUTPUT + File.separator + "pit2015_eval_single.py");
-		command.add(DIRNAME_OUTPUT + File.separator + testFile.getName());
-		command.add(DIRNAME_OUTPUT + File.separator + outputFile.getName());
-		
+	/**
+	 * Reports the official PIT metrics of an output file
+	 */
+	public PitEvaluator.Scores evalOutput(File testLabelFile, File outputFile) throws IOException {
 		long start = System.currentTimeMillis();
-
-		Process p = new ProcessBuilder(command).start();
-		BufferedReader reader = new BufferedReader( new InputStreamReader(p.getInputStream()) );
-		String line;
-		while( (line=reader.readLine()) != null )
-			System.out.println(line);
-		reader.close();
-		
-		reader = new BufferedReader( new InputStreamReader(p.getErrorStream()) );
-		while( (line=reader.readLine()) != null )
-			System.out.println(line);
-		reader.close();
-		
-		System.out.println("evaluated in " + (System.currentTimeMillis() - start) + " ms.");
+		PitEvaluator.Scores scores = PitEvaluator.evaluate(testLabelFile, outputFile);
+		long millis = System.currentTimeMillis() - start;
+		_report.message( scores.toString() );
+		_report.message("evaluated in " + millis + " ms.");
+		_report.metric(reportName("evalOutput.f1"), scores._f1);
+		_report.metric(reportName("evalOutput.pearson"), scores._pearson);
+		_report.metric(reportName("evalOutput.maxF1"), scores._maxF1);
+		return scores;
 	}
 	
 /*	public static void exportDevLabels() throws IOException {
@@ -0,0 +1,227 @@
+package trifonov.stanislav.textmining;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import trifonov.stanislav.textmining.feature.CharNGrams;
+import trifonov.stanislav.textmining.feature.OovStrategy;
+
+/**
+ * Subword embeddings: a table of hashed character n-gram buckets, derived from the word2vec vectors.
+ * Every bucket holds the average (unit length) vector of the words whose n-grams fall in it, and the vector
+ * of an unknown word is the average of its n-grams' buckets - so hashtags, misspellings and elongations of
+ * a known word land close to it. Rows are quantized to one byte per component with a float scale, and the
+ * table lives outside the heap: in a direct buffer while built, memory mapped once {@link #save(File) saved}.
+ * <br>The n-grams are the {@link CharNGrams}, as for the default OOV strategy.
+ */
+public class SubwordTable implements OovStrategy {
+
+	public static final int DEFAULT_BUCKETS = 1 << 18;
+
+	private static final int MAGIC = 0x53575431; // "SWT1"
+	/** magic, buckets, layer size, min n, max n */
+	private static final int HEADER_SIZE = 5 * 4;
+
+	private final ByteBuffer _table;
+	private final int _buckets;
+	private final int _layerSize;
+	private final int _minN;
+	private final int _maxN;
+	/** a row: the float scale and a byte per component */
+	private final int _rowSize;
+	/** CRC-32 of the whole table */
+	private final long _checksum;
+
+	private SubwordTable(ByteBuffer table) throws IOException {
+		_table = table;
+		_table.order(ByteOrder.LITTLE_ENDIAN);
+		if(_table.capacity() < HEADER_SIZE || _table.getInt(0) != MAGIC)
+			throw new IOException("Not a subword table");
+		_buckets = _table.getInt(4);
+		_layerSize = _table.getInt(8);
+		_minN = _table.getInt(12);
+		_maxN = _table.getInt(16);
+		_rowSize = 4 + _layerSize;
+		if( _table.capacity() < HEADER_SIZE + (long)_buckets * _rowSize )
+			throw new EOFException("The subword table is truncated");
+
+		CRC32 checksum = new CRC32();
+		checksum.update( _table.duplicate() );
+		_checksum = checksum.getValue();
+	}
+
+	/**
+	 * Derives the table from word2vec vectors. Multi-word phrases (with <code>_</code>) are skipped.
+	 * Needs <code>buckets * layerSize</code> floats of heap while building: about 315MB for the
+	 * {@link #DEFAULT_BUCKETS default} 2<sup>18</sup> buckets of 300, besides the table's 80MB of direct memory.
+	 */
+	public static SubwordTable build(Map<String, float[]> word2vecs, int layerSize, int buckets) throws IOException {
+		long rowsSize = (long)buckets * (4 + layerSize);
+		if( HEADER_SIZE + rowsSize > Integer.MAX_VALUE )
+			throw new IllegalArgumentException(buckets + " buckets of " + layerSize + " don't fit a buffer");
+
+		float sums[] = new float[buckets * layerSize];
+		int counts[] = new int[buckets];
+		for(Entry<String, float[]> entry : word2vecs.entrySet()) {
+			String word = entry.getKey();
+			if( word.indexOf('_') >= 0 )
+				continue;
+
+			float vector[] = entry.getValue();
+			double norm = 0;
+			for(int i=0; i<layerSize; ++i)
+				norm += vector[i] * vector[i];
+			if(norm == 0)
+				continue;
+			float unit = (float) (1 / Math.sqrt(norm));
+
+			String bounded = CharNGrams.bounded(word);
+			for(int n=CharNGrams.MIN_N; n<=CharNGrams.MAX_N; ++n)
+				for(int start=0; start+n<=bounded.length(); ++start) {
+					int bucket = bucket(bounded, start, n, buckets);
+					int offset = bucket * layerSize;
+					for(int i=0; i<layerSize; ++i)
+						sums[offset+i] += vector[i] * unit;
+					++counts[bucket];
+				}
+		}
+
+		ByteBuffer table = ByteBuffer.allocateDirect( (int)(HEADER_SIZE + rowsSize) );
+		table.order(ByteOrder.LITTLE_ENDIAN);
+		table.putInt(MAGIC).putInt(buckets).putInt(layerSize)
+			.putInt(CharNGrams.MIN_N).putInt(CharNGrams.MAX_N);
+		for(int bucket=0; bucket<buckets; ++bucket) {
+			int offset = bucket * layerSize;
+			float maxAbs = 0;
+			for(int i=0; i<layerSize; ++i)
+				maxAbs = Math.max( maxAbs, Math.abs(sums[offset+i]) );
+			// an empty bucket is a zero row
+			float scale = counts[bucket] == 0 || maxAbs == 0 ? 0 : maxAbs / counts[bucket] / 127;
+			table.putFloat(scale);
+			for(int i=0; i<layerSize; ++i)
+				table.put( scale == 0 ? 0 : (byte) Math.round(sums[offset+i] / counts[bucket] / scale) );
+		}
+		table.flip();
+
+		return new SubwordTable(table);
+	}
+
+	/**
+	 * Maps a {@link #save(File) saved} table
+	 */
+	public static SubwordTable open(File tableFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(tableFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			return new SubwordTable( channel.map(MapMode.READ_ONLY, 0, channel.size()) );
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Maps a saved table of vectors of <code>layerSize</code>, the size of the vectors it's going to be compared with
+	 */
+	public static SubwordTable open(File tableFile, int layerSize) throws IOException {
+		SubwordTable table = open(tableFile);
+		if(table.getLayerSize() != layerSize)
+			throw new IOException(tableFile + " has vectors of " + table.getLayerSize() + ", expected " + layerSize);
+		return table;
+	}
+
+	public void save(File tableFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(tableFile, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			ByteBuffer table = _table.duplicate();
+			table.clear();
+			while( table.hasRemaining() )
+				channel.write(table);
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	public int getLayerSize() {
+		return _layerSize;
+	}
+
+	public int getBuckets() {
+		return _buckets;
+	}
+
+	/**
+	 * Tells tables apart by their content, a table built again from the same vectors has the same id
+	 */
+	@Override
+	public String getId() {
+		return "subword" + _minN + "-" + _maxN + "/" + _layerSize + "/" + _buckets + "/" + Long.toHexString(_checksum);
+	}
+
+	@Override
+	public float[] vector(String word) {
+		String bounded = CharNGrams.bounded(word);
+		float vector[] = new float[_layerSize];
+		int count = 0;
+		for(int n=_minN; n<=_maxN; ++n)
+			for(int start=0; start+n<=bounded.length(); ++start) {
+				int row = HEADER_SIZE + bucket(bounded, start, n, _buckets) * _rowSize;
+				float scale = _table.getFloat(row);
+				// empty buckets know nothing about the word
+				if(scale == 0)
+					continue;
+				for(int i=0; i<_layerSize; ++i)
+					vector[i] += scale * _table.get(row + 4 + i);
+				++count;
+			}
+
+		if(count > 1)
+			for(int i=0; i<_layerSize; ++i)
+				vector[i] /= count;
+		return vector;
+	}
+
+	private static int bucket(String bounded, int start, int n, int buckets) {
+		return (int) ( (CharNGrams.hash(bounded, start, n) >>> 1) % buckets );
+	}
+
+	/**
+	 * Arguments: <code>[--word2vec file] --out file [--buckets N]</code>
+	 */
+	public static void main(String[] args) throws IOException {
+		String word2vecFile = new File(PIT2015.DIRNAME_WORD2VEC_LOCATION, PIT2015.FILENAME_WORD2VEC_BIN).getPath();
+		String outFile = null;
+		int buckets = DEFAULT_BUCKETS;
+		for(int i=0; i+1<args.length; i+=2) {
+			if( "--word2vec".equals(args[i]) )
+				word2vecFile = args[i+1];
+			else if( "--out".equals(args[i]) )
+				outFile = args[i+1];
+			else if( "--buckets".equals(args[i]) )
+				buckets = Integer.parseInt(args[i+1]);
+			else
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+		if(outFile == null)
+			throw new IllegalArgumentException("--out is required");
+
+		long start = System.currentTimeMillis();
+		Word2VecStore word2vecs = new Word2VecStore(new File(word2vecFile));
+		SubwordTable table = build(word2vecs, word2vecs.getLayerSize(), buckets);
+		table.save(new File(outFile));
+		System.out.println("Built " + buckets + " buckets from " + word2vecs.size() + " word2vecs in "
+				+ (System.currentTimeMillis()-start) + "ms.");
+	}
+}
@@ -0,0 +1,155 @@
+package trifonov.stanislav.textmining;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All the vectors of a word2vec binary file, kept in the memory mapped file instead of the heap.
+ * Only the offset of every word's vector is indexed while opening; a vector is read (and paged in)
+ * when it's looked up, so the store is cheap to share between threads and between requests.
+ */
+public class Word2VecStore extends AbstractMap<String, float[]> {
+
+	private final static long ONE_GB = 1024 * 1024 * 1024;
+
+	private final Map<String, Long> _offsets = new HashMap<String, Long>();
+	private final MappedByteBuffer[] _segments;
+	private final int _layerSize;
+
+	/**
+	 * Segments are mapped with an overlap so that a vector never crosses two segments
+	 */
+	private final long _segmentOverlap;
+
+	public Word2VecStore(File word2vecFile) throws IOException {
+		DataInputStream in = new DataInputStream( new BufferedInputStream(new FileInputStream(word2vecFile), 1 << 20) );
+		long position = 0;
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while( (b=in.read()) != '\n' ) {
+				if(b < 0)
+					throw new EOFException(word2vecFile + " has no header");
+				line.write(b);
+				++position;
+			}
+			++position;
+
+			String header[] = new String(line.toByteArray(), StandardCharsets.UTF_8).trim().split(" ");
+			final int vocabSize = Integer.parseInt(header[0]);
+			_layerSize = Integer.parseInt(header[1]);
+			_segmentOverlap = 4L * _layerSize;
+			final byte[] vector = new byte[4 * _layerSize];
+
+			for(int lineNumber=0; lineNumber<vocabSize; ++lineNumber) {
+				line.reset();
+				while( (b=in.read()) != ' ' ) {
+					if(b < 0)
+						throw new EOFException(word2vecFile + " ends after " + lineNumber + " words");
+					// some binary files have a newline in front of the words, some don't
+					if(b != '\n')
+						line.write(b);
+					++position;
+				}
+				++position;
+
+				_offsets.put( new String(line.toByteArray(), StandardCharsets.UTF_8), position );
+				in.readFully(vector);
+				position += 4 * _layerSize;
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		RandomAccessFile file = new RandomAccessFile(word2vecFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			int segmentsCount = (int) Math.max( 1, (size + ONE_GB - 1) / ONE_GB );
+			_segments = new MappedByteBuffer[segmentsCount];
+			for(int i=0; i<segmentsCount; ++i) {
+				long start = i * ONE_GB;
+				long length = Math.min(ONE_GB + _segmentOverlap, size - start);
+				_segments[i] = channel.map(MapMode.READ_ONLY, start, length);
+				_segments[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	public int getLayerSize() {
+		return _layerSize;
+	}
+
+	@Override
+	public boolean containsKey(Object word) {
+		return _offsets.containsKey(word);
+	}
+
+	@Override
+	public float[] get(Object word) {
+		Long offset = _offsets.get(word);
+		if(offset == null)
+			return null;
+
+		ByteBuffer segment = _segments[ (int)(offset / ONE_GB) ].duplicate();
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		segment.position( (int)(offset % ONE_GB) );
+		float[] vector = new float[_layerSize];
+		segment.asFloatBuffer().get(vector);
+		return vector;
+	}
+
+	@Override
+	public int size() {
+		return _offsets.size();
+	}
+
+	@Override
+	public Set<Entry<String, float[]>> entrySet() {
+		return new AbstractSet<Entry<String, float[]>>() {
+			@Override
+			public Iterator<Entry<String, float[]>> iterator() {
+				final Iterator<String> words = _offsets.keySet().iterator();
+				return new Iterator<Entry<String, float[]>>() {
+					@Override
+					public boolean hasNext() {
+						return words.hasNext();
+					}
+
+					@Override
+					public Entry<String, float[]> next() {
+						String word = words.next();
+						return new SimpleImmutableEntry<String, float[]>(word, get(word));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return _offsets.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,160 @@
+package trifonov.stanislav.textmining.eval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import trifonov.stanislav.ml.IMLModel;
+import trifonov.stanislav.textmining.PairData;
+
+/**
+ * k-fold cross-validation of a kind of model. The folds train and evaluate in parallel, each on a fresh
+ * model from the factory, over the same (read-only) feature rows: a fold is only a range of a shuffled
+ * index array, rows are never copied.
+ *
+ * F1 counts as in the PIT evaluation: labels from {@link PairData#LABEL_PARAPHRASE06} up are paraphrases,
+ * below {@link PairData#LABEL_DEBATABLE} non-paraphrases, the debatable pairs are left out.
+ */
+public class CrossValidation {
+
+	private final int _foldsCount;
+	private final int _threadsCount;
+	private final long _seed;
+
+	public CrossValidation(int foldsCount, int threadsCount, long seed) {
+		_foldsCount = foldsCount;
+		_threadsCount = threadsCount;
+		_seed = seed;
+	}
+
+	public static class Report {
+		private final float _f1s[];
+		private final long _trainMillis[];
+		private final long _evaluateMillis[];
+		private final long _wallMillis;
+
+		Report(float f1s[], long trainMillis[], long evaluateMillis[], long wallMillis) {
+			_f1s = f1s;
+			_trainMillis = trainMillis;
+			_evaluateMillis = evaluateMillis;
+			_wallMillis = wallMillis;
+		}
+
+		public float getF1(int fold) {
+			return _f1s[fold];
+		}
+
+		public double getMeanF1() {
+			double sum = 0;
+			for(float f1 : _f1s)
+				sum += f1;
+			return sum / _f1s.length;
+		}
+
+		/**
+		 * @return the sample variance of the folds' F1
+		 */
+		public double getF1Variance() {
+			if(_f1s.length < 2)
+				return 0;
+			double mean = getMeanF1();
+			double sum = 0;
+			for(float f1 : _f1s)
+				sum += (f1 - mean) * (f1 - mean);
+			return sum / (_f1s.length - 1);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for(int fold=0; fold<_f1s.length; ++fold)
+				sb.append( String.format("fold %d\tF1: %.3f\ttrain: %dms\tevaluate: %dms%n",
+						fold, _f1s[fold], _trainMillis[fold], _evaluateMillis[fold]) );
+			sb.append( String.format("F1 mean: %.3f\tvariance: %.2e\tstd: %.3f\twall: %dms",
+					getMeanF1(), getF1Variance(), Math.sqrt(getF1Variance()), _wallMillis) );
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * @param rows the feature rows, shared by all folds and not modified
+	 * @param labels the label of each row
+	 * @param labelBorder estimations from it up are paraphrases
+	 */
+	public Report run(final Supplier<IMLModel> modelFactory, final double rows[][], final float labels[], final float labelBorder) {
+		final int order[] = new int[rows.length];
+		for(int i=0; i<order.length; ++i)
+			order[i] = i;
+		Random random = new Random(_seed);
+		for(int i=order.length-1; i>0; --i) {
+			int j = random.nextInt(i+1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+
+		final float f1s[] = new float[_foldsCount];
+		final long trainMillis[] = new long[_foldsCount];
+		final long evaluateMillis[] = new long[_foldsCount];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(_foldsCount);
+		for(int fold=0; fold<_foldsCount; ++fold) {
+			final int index = fold;
+			final int from = (int) ((long) order.length * fold / _foldsCount);
+			final int to = (int) ((long) order.length * (fold+1) / _foldsCount);
+			tasks.add( () -> {
+				long start = System.currentTimeMillis();
+				IMLModel model = modelFactory.get();
+				for(int i=0; i<order.length; ++i)
+					if(i < from || i >= to)
+						model.feedData(rows[order[i]], labels[order[i]]);
+				model.build();
+				trainMillis[index] = System.currentTimeMillis() - start;
+
+				start = System.currentTimeMillis();
+				int truePositives = 0, falsePositives = 0, falseNegatives = 0;
+				for(int i=from; i<to; ++i) {
+					float label = labels[order[i]];
+					if(label == PairData.LABEL_DEBATABLE)
+						continue;
+					boolean paraphrase = model.estimate(rows[order[i]]) >= labelBorder;
+					if(label >= PairData.LABEL_PARAPHRASE06) {
+						if(paraphrase)
+							++truePositives;
+						else
+							++falseNegatives;
+					}
+					else if(paraphrase)
+						++falsePositives;
+				}
+				f1s[index] = truePositives == 0 ? 0 : 2f * truePositives / (2 * truePositives + falsePositives + falseNegatives);
+				evaluateMillis[index] = System.currentTimeMillis() - start;
+				return null;
+			} );
+		}
+
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(_threadsCount);
+		try {
+			for(Future<Void> future : executor.invokeAll(tasks))
+				future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		return new Report(f1s, trainMillis, evaluateMillis, System.currentTimeMillis() - start);
+	}
+}
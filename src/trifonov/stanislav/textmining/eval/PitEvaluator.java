@@ -0,0 +1,132 @@
+package trifonov.stanislav.textmining.eval;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The official PIT-2015 metrics (as computed by <code>pit2015_eval_single.py</code>) of a system output
+ * against the gold labels, in one pass over both files.
+ *
+ * Both files have a <code>true|false\tscore</code> line per pair; debatable gold pairs are labeled
+ * <code>----</code> and count for none of the metrics. The binary metrics use the system labels, the
+ * Pearson correlation and maxF1 the system scores.
+ */
+public class PitEvaluator {
+
+	private static final String LABEL_TRUE = "true";
+	private static final String LABEL_FALSE = "false";
+
+	public static class Scores {
+		public final int _pairsCount;
+		public final float _f1;
+		public final float _precision;
+		public final float _recall;
+		public final double _pearson;
+		public final float _maxF1;
+		public final float _maxF1Precision;
+		public final float _maxF1Recall;
+		/** the lowest score labeled as a paraphrase for maxF1 */
+		public final float _maxF1Threshold;
+
+		Scores(int pairsCount, float f1, float precision, float recall, double pearson,
+				float maxF1, float maxF1Precision, float maxF1Recall, float maxF1Threshold) {
+			_pairsCount = pairsCount;
+			_f1 = f1;
+			_precision = precision;
+			_recall = recall;
+			_pearson = pearson;
+			_maxF1 = maxF1;
+			_maxF1Precision = maxF1Precision;
+			_maxF1Recall = maxF1Recall;
+			_maxF1Threshold = maxF1Threshold;
+		}
+
+		/**
+		 * The columns of the official results: F1, precision, recall, Pearson, maxF1, its precision and recall
+		 */
+		@Override
+		public String toString() {
+			return String.format("%.3f\t%.3f\t%.3f\t\t%.3f\t%.3f\t%.3f\t%.3f",
+					_f1, _precision, _recall, _pearson, _maxF1, _maxF1Precision, _maxF1Recall);
+		}
+	}
+
+	public static Scores evaluate(File goldFile, File outputFile) throws IOException {
+		BufferedReader gold = null;
+		BufferedReader output = null;
+		try {
+			gold = new BufferedReader( new InputStreamReader(new FileInputStream(goldFile), StandardCharsets.UTF_8) );
+			output = new BufferedReader( new InputStreamReader(new FileInputStream(outputFile), StandardCharsets.UTF_8) );
+
+			int truePositives = 0, falsePositives = 0, falseNegatives = 0;
+			double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0, sumYY = 0;
+			double scores[] = new double[1024];
+			boolean paraphrases[] = new boolean[1024];
+			int scored = 0;
+			int pairsCount = 0;
+
+			String goldLine;
+			while( (goldLine = gold.readLine()) != null ) {
+				String outputLine = output.readLine();
+				if(outputLine == null)
+					throw new IOException("The output has fewer lines than the gold labels: " + pairsCount);
+				++pairsCount;
+
+				String goldColumns[] = goldLine.split("\t");
+				String outputColumns[] = outputLine.split("\t");
+				if( !LABEL_TRUE.equals(goldColumns[0]) && !LABEL_FALSE.equals(goldColumns[0]) )
+					continue;
+
+				boolean goldParaphrase = LABEL_TRUE.equals(goldColumns[0]);
+				boolean systemParaphrase = LABEL_TRUE.equals(outputColumns[0]);
+				if(systemParaphrase && goldParaphrase)
+					++truePositives;
+				else if(systemParaphrase)
+					++falsePositives;
+				else if(goldParaphrase)
+					++falseNegatives;
+
+				if(outputColumns.length < 2)
+					continue;
+				double score = Double.parseDouble(outputColumns[1]);
+				double goldScore = Double.parseDouble(goldColumns[1]);
+				sumX += score;
+				sumY += goldScore;
+				sumXY += score * goldScore;
+				sumXX += score * score;
+				sumYY += goldScore * goldScore;
+
+				if(scored == scores.length) {
+					scores = Arrays.copyOf(scores, scored * 2);
+					paraphrases = Arrays.copyOf(paraphrases, scored * 2);
+				}
+				scores[scored] = score;
+				paraphrases[scored++] = goldParaphrase;
+			}
+			if(output.readLine() != null)
+				throw new IOException("The output has more lines than the gold labels: " + pairsCount);
+
+			float precision = truePositives / (float)(truePositives + falsePositives);
+			float recall = truePositives / (float)(truePositives + falseNegatives);
+			float f1 = 2 * precision * recall / (precision + recall);
+
+			double pearson = (scored * sumXY - sumX * sumY)
+					/ Math.sqrt( (scored * sumXX - sumX * sumX) * (scored * sumYY - sumY * sumY) );
+
+			ThresholdSweep sweep = new ThresholdSweep(scores, paraphrases, scored);
+			return new Scores(pairsCount, f1, precision, recall, pearson,
+					sweep.getBestF1(), sweep.getBestPrecision(), sweep.getBestRecall(), sweep.getBestThreshold());
+		}
+		finally {
+			if(gold != null)
+				gold.close();
+			if(output != null)
+				output.close();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package trifonov.stanislav.textmining.eval;
+
+import java.util.Arrays;
+
+/**
+ * Precision, recall and F1 of labeling as paraphrases the pairs scored from a threshold up, for every
+ * threshold that changes the labels (the distinct scores). One sort of the scores, O(N log N) in total.
+ */
+public class ThresholdSweep {
+
+	private final float _thresholds[];
+	private final float _precisions[];
+	private final float _recalls[];
+	private final float _f1s[];
+	private final int _best;
+
+	/**
+	 * @param scores estimations of the pairs, only the first <code>count</code> are used
+	 * @param paraphrases the gold labels of the pairs (without the debatable ones)
+	 */
+	public ThresholdSweep(double scores[], boolean paraphrases[], int count) {
+		// (score, index) packed in longs whose natural order is by ascending score;
+		// NaN scores are never labeled as paraphrases, so they only count for the recall
+		long order[] = new long[count];
+		int positives = 0;
+		int scored = 0;
+		for(int i=0; i<count; ++i) {
+			if( !Double.isNaN(scores[i]) )
+				order[scored++] = ((long) sortableBits((float) scores[i]) << 32) | i;
+			if(paraphrases[i])
+				++positives;
+		}
+		order = Arrays.copyOf(order, scored);
+		Arrays.sort(order);
+
+		float thresholds[] = new float[scored];
+		float precisions[] = new float[scored];
+		float recalls[] = new float[scored];
+		float f1s[] = new float[scored];
+		int cuts = 0;
+		int best = -1;
+		int truePositives = 0;
+		double minScore = Double.POSITIVE_INFINITY;
+		for(int i=scored-1; i>=0; --i) {
+			int index = (int) order[i];
+			if(paraphrases[index])
+				++truePositives;
+			minScore = Math.min(minScore, scores[index]);
+			// ties go together
+			if(i > 0 && (order[i-1] >> 32) == (order[i] >> 32))
+				continue;
+
+			// the largest float not above any score of the group, so that score >= threshold holds for all of them
+			float threshold = (float) minScore;
+			if(threshold > minScore)
+				threshold = Math.nextDown(threshold);
+			float precision = truePositives / (float) (scored - i);
+			float recall = truePositives / (float) positives;
+
+			thresholds[cuts] = threshold;
+			precisions[cuts] = precision;
+			recalls[cuts] = recall;
+			f1s[cuts] = truePositives == 0 ? 0 : 2 * precision * recall / (precision + recall);
+			if(best < 0 || f1s[cuts] > f1s[best])
+				best = cuts;
+			++cuts;
+			minScore = Double.POSITIVE_INFINITY;
+		}
+
+		_thresholds = Arrays.copyOf(thresholds, cuts);
+		_precisions = Arrays.copyOf(precisions, cuts);
+		_recalls = Arrays.copyOf(recalls, cuts);
+		_f1s = Arrays.copyOf(f1s, cuts);
+		_best = best;
+	}
+
+	/**
+	 * @return number of thresholds, from the highest to the lowest
+	 */
+	public int size() {
+		return _thresholds.length;
+	}
+
+	public float getThreshold(int cut) {
+		return _thresholds[cut];
+	}
+
+	public float getPrecision(int cut) {
+		return _precisions[cut];
+	}
+
+	public float getRecall(int cut) {
+		return _recalls[cut];
+	}
+
+	public float getF1(int cut) {
+		return _f1s[cut];
+	}
+
+	/**
+	 * @return the threshold with the highest F1, NaN without any scores
+	 */
+	public float getBestThreshold() {
+		return _best < 0 ? Float.NaN : _thresholds[_best];
+	}
+
+	public float getBestF1() {
+		return _best < 0 ? 0 : _f1s[_best];
+	}
+
+	public float getBestPrecision() {
+		return _best < 0 ? 0 : _precisions[_best];
+	}
+
+	public float getBestRecall() {
+		return _best < 0 ? 0 : _recalls[_best];
+	}
+
+	/**
+	 * Bits of a float as an int ordered like the float
+	 */
+	private static int sortableBits(float value) {
+		int bits = Float.floatToIntBits(value);
+		return bits < 0 ? bits ^ 0x7FFFFFFF : bits;
+	}
+}
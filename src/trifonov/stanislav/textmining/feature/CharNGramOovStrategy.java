@@ -0,0 +1,68 @@
+package trifonov.stanislav.textmining.feature;
+
+/**
+ * Composes the vector of a word from its {@link CharNGrams character n-grams}, as fastText does for unknown
+ * words but without a trained table: every n-gram gets a pseudo random vector derived
+ * from its hash alone, and the word's vector is their normalized sum. Words that share n-grams - misspellings,
+ * elongations, hashtags of a word - get similar vectors, unrelated words nearly orthogonal ones.
+ */
+public class CharNGramOovStrategy implements OovStrategy {
+
+	/** 2^-53, for doubles in [0, 1) out of the high bits of a long */
+	private static final double UNIT = 0x1.0p-53;
+
+	private final int _layerSize;
+
+	public CharNGramOovStrategy(int layerSize) {
+		_layerSize = layerSize;
+	}
+
+	@Override
+	public float[] vector(String word) {
+		String bounded = CharNGrams.bounded(word);
+		double sum[] = new double[_layerSize];
+		for(int n=CharNGrams.MIN_N; n<=CharNGrams.MAX_N; ++n)
+			for(int start=0; start+n<=bounded.length(); ++start)
+				addRandomVector(sum, CharNGrams.hash(bounded, start, n));
+		// words shorter than MIN_N - 2 characters are n-grams of themselves
+		if(bounded.length() < CharNGrams.MIN_N)
+			addRandomVector(sum, CharNGrams.hash(bounded, 0, bounded.length()));
+
+		return normalize(sum);
+	}
+
+	@Override
+	public String getId() {
+		return "ngram" + CharNGrams.MIN_N + "-" + CharNGrams.MAX_N + "/" + _layerSize;
+	}
+
+	/**
+	 * Adds uniform components in [-1, 1) of a SplitMix64 stream seeded by <code>seed</code>
+	 */
+	static void addRandomVector(double sum[], long seed) {
+		long state = seed;
+		for(int i=0; i<sum.length; ++i) {
+			state += 0x9e3779b97f4a7c15L;
+			sum[i] += 2 * ( (mix(state) >>> 11) * UNIT ) - 1;
+		}
+	}
+
+	static float[] normalize(double sum[]) {
+		double norm = 0;
+		for(double value : sum)
+			norm += value * value;
+		norm = Math.sqrt(norm);
+
+		float vector[] = new float[sum.length];
+		if(norm > 0)
+			for(int i=0; i<sum.length; ++i)
+				vector[i] = (float) (sum[i] / norm);
+		return vector;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,39 @@
+package trifonov.stanislav.textmining.feature;
+
+import java.util.Locale;
+
+/**
+ * The character n-grams the subword vectors of a word are made of: the {@link #MIN_N} to {@link #MAX_N}-grams
+ * of <code>&lt;word&gt;</code> in lower case, each identified by its 64 bit FNV-1a hash. The only place they
+ * are defined, so that every subword based {@link OovStrategy} (and a table built for one) sees the same n-grams.
+ */
+public final class CharNGrams {
+
+	public static final int MIN_N = 3;
+	public static final int MAX_N = 6;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private CharNGrams() {
+	}
+
+	/**
+	 * @return the lower case word between <code>&lt;</code> and <code>&gt;</code>, whose n-grams are hashed
+	 */
+	public static String bounded(String word) {
+		return "<" + word.toLowerCase(Locale.ROOT) + ">";
+	}
+
+	/**
+	 * 64 bit FNV-1a of <code>n</code> characters from <code>start</code>
+	 */
+	public static long hash(String text, int start, int n) {
+		long hash = FNV_OFFSET;
+		for(int i=start; i<start+n; ++i) {
+			hash ^= text.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+}
@@ -3,29 +3,75 @@ package trifonov.stanislav.textmining.feature;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 
-import opennlp.tools.stemmer.PorterStemmer;
-import opennlp.tools.stemmer.Stemmer;
+import trifonov.stanislav.textmining.metrics.LatencyHistogram;
+import trifonov.stanislav.textmining.metrics.Metrics;
 
 public class FeaturesExtractor {
 
+	/**
+	 * Names of the features returned by {@link #getFeatures()}, in the same order.
+	 */
+	public static final List<String> FEATURE_NAMES = Collections.unmodifiableList( Arrays.asList(
+			"wordOrder", "ssv+wo", "word2vec_cossim", "semw2v", "w2v_cos_sim",
+			"1gramPrecision", "1gramRecall", "1gramF1",
+			"1gramStemPrecision", "1gramStemRecall", "1gramStemF1",
+			"2gramPrecision", "2gramRecall", "2gramF1",
+			"2gramStemPrecision", "2gramStemRecall", "2gramStemF1",
+			"3gramPrecision", "3gramRecall", "3gramF1",
+			"3gramStemPrecision", "3gramStemRecall", "3gramStemF1") );
+
+	/**
+	 * Changes whenever the same pair gets different feature values, so that models trained before don't
+	 * load. 2: word2vec similarities of known words are computed (they were random or truncated to 0)
+	 * and unknown words get the vectors of an {@link OovStrategy} instead of random numbers.
+	 */
+	public static final int FEATURES_VERSION = 2;
+
+	/**
+	 * Size of the word2vec vectors
+	 */
+	public static final int LAYER_SIZE = 300;
+
+	/**
+	 * Vectors of unknown words unless {@link #setOovStrategy(OovStrategy) set}, shared by all extractors
+	 * and never released: a memo of up to {@link MemoizedOovStrategy#DEFAULT_MAX_SIZE} vectors (about 20MB)
+	 */
+	public static final OovStrategy DEFAULT_OOV_STRATEGY = OovStrategy.forName("ngram", LAYER_SIZE);
+
+	private static final LatencyHistogram WORD_ORDER_LATENCY = Metrics.latency("wordOrder");
+	private static final LatencyHistogram SEMANTIC_LATENCY = Metrics.latency("feature.ssv+wo");
+	private static final LatencyHistogram WORD2VEC_LATENCY = Metrics.latency("feature.word2vec_cossim");
+	private static final LatencyHistogram W2VSS_LATENCY = Metrics.latency("feature.semw2v");
+	private static final LatencyHistogram W2V_COS_SIM_LATENCY = Metrics.latency("feature.w2v_cos_sim");
+	private static final LatencyHistogram NGRAM_OVERLAP_LATENCY = Metrics.latency("ngram.overlap");
+	private static final LatencyHistogram FEATURES_LATENCY = Metrics.latency("features");
+	private static final LongAdder PAIRS = Metrics.counter("pairs");
+
 	public String _sentence1Tags;
 	public String _sentence2Tags;
 	
 	private float[] _ngramFeatures = null;
 	private float[] _ngramStemFeatures = null;
 	
-	private List<String> _s1Words = new ArrayList<String>();
-	private List<String> _s2Words = new ArrayList<String>();
+	private Sentence _sentence1;
+	private Sentence _sentence2;
 	
-	private List<String> _s1POSTags = new ArrayList<String>();
-	private List<String> _s2POSTags = new ArrayList<String>();
+	private List<String> _s1Words;
+	private List<String> _s2Words;
+	
+	private List<String> _s1POSTags;
+	private List<String> _s2POSTags;
 	private final Map<String, float[]> _word2vecs;
+	private Map<String, Double> _wordSimilarities = null;
+	private OovStrategy _oovStrategy = DEFAULT_OOV_STRATEGY;
 	
 	public FeaturesExtractor(String tags1, String tags2, Map<String, float[]> word2vecs) {
 		_word2vecs = word2vecs;
@@ -33,30 +79,104 @@ public class FeaturesExtractor {
 		init(tags1, tags2);
 	}
 	
+	/**
+	 * Creates an extractor to be {@link #init(String, String) initialized} later with a pair
+	 */
+	public FeaturesExtractor(Map<String, float[]> word2vecs) {
+		_word2vecs = word2vecs;
+	}
+	
+	/**
+	 * Remembers the word2vec similarities of word pairs across {@link #init(Sentence, Sentence) pairs},
+	 * e.g. for the pairs of one topic. The map is not synchronized; null stops caching.
+	 */
+	public void setWordSimilarityCache(Map<String, Double> wordSimilarities) {
+		_wordSimilarities = wordSimilarities;
+	}
+	
+	/**
+	 * Sets the vectors of the words that aren't in the word2vec model
+	 */
+	public void setOovStrategy(OovStrategy oovStrategy) {
+		_oovStrategy = oovStrategy;
+	}
+	
+	/**
+	 * @return what the feature values depend on besides their {@link #FEATURE_NAMES names}, to be saved with a model
+	 */
+	public static String getFeatureSchema(OovStrategy oovStrategy) {
+		return "features " + FEATURES_VERSION + ", oov " + oovStrategy.getId();
+	}
+	
 	public void init(String tags1, String tags2) {
-		_sentence1Tags = tags1;
-		_sentence2Tags = tags2;
-		_s1Words.clear();
-		_s2Words.clear();
-		_s1POSTags.clear();
-		_s2POSTags.clear();
-		
-		String tags[] = _sentence1Tags.split(" ");
-		for(int i=0; i<tags.length; ++i) {
-			_s1Words.add( tags[i].substring(0, tags[i].indexOf('/')) );
-			_s1POSTags.add( tags[i].split("/")[2] );
-		}
-		
-		tags = _sentence2Tags.split(" ");
-		for(int i=0; i<tags.length; ++i) {
-			_s2Words.add( tags[i].substring(0, tags[i].indexOf('/')) );
-			_s2POSTags.add( tags[i].split("/")[2] );
-		}
+		init( Sentence.parse(tags1), Sentence.parse(tags2) );
+	}
+	
+	public void init(Sentence sentence1, Sentence sentence2) {
+		_sentence1 = sentence1;
+		_sentence2 = sentence2;
+		_sentence1Tags = sentence1.getTags();
+		_sentence2Tags = sentence2.getTags();
+		_s1Words = sentence1.getWords();
+		_s2Words = sentence2.getWords();
+		_s1POSTags = sentence1.getPOSTags();
+		_s2POSTags = sentence2.getPOSTags();
 
 		_ngramFeatures = null;
 		_ngramStemFeatures = null;
 	}
 	
+	/**
+	 * All features of the current pair, ordered as {@link #FEATURE_NAMES}
+	 */
+	public List<Feature> getFeatures() throws IOException {
+		long featuresStart = Metrics.start();
+		List<Feature> features = new ArrayList<Feature>(FEATURE_NAMES.size());
+		long start = Metrics.start();
+		features.add(getWordOrderSimilarity());
+		WORD_ORDER_LATENCY.recordSince(start);
+		start = Metrics.start();
+		features.add(getSemanticSimilarity());
+		SEMANTIC_LATENCY.recordSince(start);
+		start = Metrics.start();
+		features.add(getWord2VecFeature());
+		WORD2VEC_LATENCY.recordSince(start);
+		start = Metrics.start();
+		features.add(getW2VSSFeature());
+		W2VSS_LATENCY.recordSince(start);
+		start = Metrics.start();
+		features.add(getW2VCosSimFeature());
+		W2V_COS_SIM_LATENCY.recordSince(start);
+		
+		start = Metrics.start();
+		prepareNGramOverlapFeatures();
+		NGRAM_OVERLAP_LATENCY.recordSince(start);
+		features.add(get1gramPrecision());
+		features.add(get1gramRecall());
+		features.add(get1gramF1());
+		features.add(get1gramStemPrecision());
+		features.add(get1gramStemRecall());
+		features.add(get1gramStemF1());
+		
+		features.add(get2gramPrecision());
+		features.add(get2gramRecall());
+		features.add(get2gramF1());
+		features.add(get2gramStemPrecision());
+		features.add(get2gramStemRecall());
+		features.add(get2gramStemF1());
+		
+		features.add(get3gramPrecision());
+		features.add(get3gramRecall());
+		features.add(get3gramF1());
+		features.add(get3gramStemPrecision());
+		features.add(get3gramStemRecall());
+		features.add(get3gramStemF1());
+		FEATURES_LATENCY.recordSince(featuresStart);
+		Metrics.count(PAIRS, 1);
+		
+		return features;
+	}
+	
 	public Feature getWordOrderSimilarity() {
 		
 		return new Feature( "wordOrder", new Float(wordOrderSimilarity()) );
@@ -142,9 +262,9 @@ public class FeaturesExtractor {
 	}
 	
 	private float cosineSimilarity(float[] a, float[] b) {
-		int dotProduct = 0;
-		int magnitudeA = 0;
-		int magnituteB = 0;
+		float dotProduct = 0;
+		float magnitudeA = 0;
+		float magnituteB = 0;
 		
 		for(int i=0; i<a.length; ++i) {
 			dotProduct += a[i] * b[i];
@@ -197,21 +317,15 @@ public class FeaturesExtractor {
 			return dotProduct / (magnitudeA*magnitudeB);
 	}
 	
-	private double maxW2VSimilarity(String word, String posTag, List<String> words, List<String> posTags) {
+	// package private for the benchmarks
+	double maxW2VSimilarity(String word, String posTag, List<String> words, List<String> posTags) {
 		double maxSimilarity = 0;
 		
 		for(int i=0; i<words.size(); ++i) {
 			if( !posTags.get(i).equals(posTag) )
 				continue;
 			
-			double similarity = 0;
-			String candidateWord = words.get(i);
-			if(_word2vecs.containsKey(words) && _word2vecs.containsKey(candidateWord)) {
-				similarity = cosineSimilarity(_word2vecs.get(word), _word2vecs.get(candidateWord));
-			}
-			else
-				similarity = Math.random();
-			
+			double similarity = wordSimilarity(word, words.get(i));
 			if(similarity > maxSimilarity)
 				maxSimilarity = similarity;
 		}
@@ -219,6 +333,25 @@ public class FeaturesExtractor {
 		return maxSimilarity;
 	}
 	
+	private double wordSimilarity(String word1, String word2) {
+		if(_wordSimilarities == null)
+			return cosineSimilarity(vector(word1), vector(word2));
+		
+		// symmetric, so one entry per unordered pair; words never contain spaces
+		String key = word1.compareTo(word2) < 0 ? word1 + ' ' + word2 : word2 + ' ' + word1;
+		Double similarity = _wordSimilarities.get(key);
+		if(similarity == null) {
+			similarity = Double.valueOf( cosineSimilarity(vector(word1), vector(word2)) );
+			_wordSimilarities.put(key, similarity);
+		}
+		return similarity;
+	}
+	
+	private float[] vector(String word) {
+		float vector[] = _word2vecs.get(word);
+		return vector != null ? vector : _oovStrategy.vector(word);
+	}
+	
 	/**
 	 * Based on Malik et al. "Automatically Selecting Answer Templates to Respond to Customer Emails":
 	 * Sum of max word similarities (word2vec cosine similarity) in the same POS class normalized by
@@ -309,19 +442,13 @@ public class FeaturesExtractor {
 		
 		List<RealVector> s1Vectors = new ArrayList<RealVector>(allWords.size());
 		List<RealVector> s2Vectors = new ArrayList<RealVector>(allWords.size());
-		double[] values = new double[300]; //ugly - that's the size of the word2vec
-		double[] zeros = new double[300];
+		double[] values = new double[LAYER_SIZE];
+		double[] zeros = new double[LAYER_SIZE];
 		
 		for(int i=0; i<allWords.size(); ++i) {
-			if(_word2vecs.containsKey(allWords.get(i))) {
-				float[] w2v = _word2vecs.get(allWords.get(i));
-				for(int j=0; j<values.length; ++j)
-					values[j] = w2v[j];
-			}
-			else
-				Arrays.fill(values, Math.random());
-			
-				
+			float[] w2v = vector(allWords.get(i));
+			for(int j=0; j<values.length; ++j)
+				values[j] = w2v[j];
 			
 			if( _s1Words.contains(allWords.get(i)) )
 				s1Vectors.add( new ArrayRealVector(values) );
@@ -393,31 +520,12 @@ public class FeaturesExtractor {
 	 */
 	private void prepareNGramOverlapFeatures() {
 		if(_ngramFeatures == null || _ngramStemFeatures == null) {
-			String tags[] = _sentence1Tags.split(" ");
-			
-			String s11grams[] = new String[tags.length];
-			for(int i=0; i<tags.length; ++i)
-				s11grams[i] = tags[i].substring(0, tags[i].indexOf('/'));
-			
-			tags = _sentence2Tags.split(" ");
-			String s21grams[] = new String[tags.length];
-			for(int i=0; i<tags.length; ++i)
-				s21grams[i] = tags[i].substring(0, tags[i].indexOf('/'));
-			
-			
-			Stemmer stemmer = new PorterStemmer();
-			List<String> s11stems = new ArrayList<String>();
-			List<String> s21stems = new ArrayList<String>();
-	
-			for(String word : s11grams)
-				s11stems.add( stemmer.stem(word).toString() );
-			for(String word : s21grams)
-				s21stems.add( stemmer.stem(word).toString() );
-			
-			_ngramFeatures = nGramOverlaps(s11grams, s21grams);
+			_ngramFeatures = nGramOverlaps(
+					_sentence1.getNGramHashes(1), _sentence1.getNGramHashes(2), _sentence1.getNGramHashes(3),
+					_sentence2.getNGramHashes(1), _sentence2.getNGramHashes(2), _sentence2.getNGramHashes(3) );
 			_ngramStemFeatures = nGramOverlaps(
-					s11stems.toArray(new String[s11stems.size()]),
-					s21stems.toArray(new String[s21stems.size()]) );
+					_sentence1.getStemNGramHashes(1), _sentence1.getStemNGramHashes(2), _sentence1.getStemNGramHashes(3),
+					_sentence2.getStemNGramHashes(1), _sentence2.getStemNGramHashes(2), _sentence2.getStemNGramHashes(3) );
 		}
 		
 //		"precision1gram", ngramFeatures[0]
@@ -441,49 +549,29 @@ public class FeaturesExtractor {
 //		"f3stem", ngramStemFeatures[8]
 	}
 	
-	private float[] nGramOverlaps(String s1Words[], String s2Words[]) {
-		List<String> s12grams = new ArrayList<String>();
-		List<String> s22grams = new ArrayList<String>();
-		List<String> s13grams = new ArrayList<String>();
-		List<String> s23grams = new ArrayList<String>();
-		
-		for (int i = 0; i < s1Words.length-1; i++)
-			s12grams.add( s1Words[i] + " " + s1Words[i+1]);
-		for (int i = 0; i < s1Words.length-2; i++)
-			s13grams.add( s1Words[i] + " " + s1Words[i+1] + " " + s1Words[i+2]);
-		
-		for (int i = 0; i < s2Words.length-1; i++)
-			s22grams.add( s2Words[i] + " " + s2Words[i+1]);
-		for (int i = 0; i < s2Words.length-2; i++)
-			s23grams.add( s2Words[i] + " " + s2Words[i+1] + " " + s2Words[i+2]);
-		
-		/*for(int i=0; i<s1Words.length; ++i)
-		System.out.print(s1Words[i] + "; ");
-		System.out.println();
-		for(int i=0; i<s12grams.size(); ++i)
-			System.out.print(s12grams.get(i) + "; ");
-		System.out.println();
-		for(int i=0; i<s13grams.size(); ++i)
-			System.out.print(s13grams.get(i) + "; ");
-		System.out.println();*/
-		
-		int commonItemsCount = numberOfCommonItems(s1Words, s2Words);
-		float precision1gram = commonItemsCount / (float)s1Words.length;
-		float recall1gram = commonItemsCount / (float)s2Words.length;
+	/**
+	 * Precision, recall and F1 of the 1, 2 and 3-grams of two sentences,
+	 * given as the (case insensitive) hashes of their n-grams - see {@link Sentence#getNGramHashes(int)}
+	 */
+	public static float[] nGramOverlaps(long s11grams[], long s12grams[], long s13grams[],
+			long s21grams[], long s22grams[], long s23grams[]) {
+		int commonItemsCount = numberOfCommonItems(s11grams, s21grams);
+		float precision1gram = commonItemsCount / (float)s11grams.length;
+		float recall1gram = commonItemsCount / (float)s21grams.length;
 		float f1gram = 0;
 		if (precision1gram + recall1gram > 0)
 			f1gram = 2 * precision1gram * recall1gram / (float)(precision1gram + recall1gram);
 		
 		commonItemsCount = numberOfCommonItems(s12grams, s22grams);
-		float precision2gram = commonItemsCount / (float)s12grams.size();
-		float recall2gram = commonItemsCount / (float)s22grams.size();
+		float precision2gram = commonItemsCount / (float)s12grams.length;
+		float recall2gram = commonItemsCount / (float)s22grams.length;
 		float f2gram = 0;
 		if(precision2gram + recall2gram > 0)
 			f2gram = 2 * precision2gram * recall2gram / (float)(precision2gram + recall2gram);
 		
 		commonItemsCount = numberOfCommonItems(s13grams, s23grams);
-		float precision3gram = commonItemsCount / (float)s13grams.size();
-		float recall3gram = commonItemsCount / (float)s23grams.size();
+		float precision3gram = commonItemsCount / (float)s13grams.length;
+		float recall3gram = commonItemsCount / (float)s23grams.length;
 		float f3gram = 0;
 		if(precision3gram + recall3gram > 0)
 			f3gram = 2 * precision3gram * recall3gram / (float)(precision3gram + recall3gram);
@@ -494,16 +582,24 @@ public class FeaturesExtractor {
 				precision3gram, recall3gram, f3gram };
 	}
 	
-	private static int numberOfCommonItems(List<String> l, List<String> r) {
-		return numberOfCommonItems(
-				l.toArray(new String[l.size()]),
-				r.toArray(new String[r.size()]) );
+	/**
+	 * The 1-gram F1 of {@link #nGramOverlaps(long[], long[], long[], long[], long[], long[])} alone,
+	 * for pruning many candidates without comparing their 2 and 3-grams
+	 */
+	public static float f1gramOverlap(long s11grams[], long s21grams[]) {
+		int commonItemsCount = numberOfCommonItems(s11grams, s21grams);
+		float precision1gram = commonItemsCount / (float)s11grams.length;
+		float recall1gram = commonItemsCount / (float)s21grams.length;
+		if (precision1gram + recall1gram > 0)
+			return 2 * precision1gram * recall1gram / (float)(precision1gram + recall1gram);
+		return 0;
 	}
-	private static int numberOfCommonItems(String l[], String r[]) {
+	
+	private static int numberOfCommonItems(long l[], long r[]) {
 		int count = 0;
 		for(int i=0; i<l.length; ++i) {
 			for(int j=0; j<r.length; ++j)
-				if(l[i].equalsIgnoreCase(r[j]))
+				if(l[i] == r[j])
 					++count;
 		}
 		
@@ -0,0 +1,50 @@
+package trifonov.stanislav.textmining.feature;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Computes the vector of every unknown word once, for all threads. Once <code>maxSize</code> words are
+ * remembered, the vectors of new ones are computed on every call instead of being added.
+ */
+public class MemoizedOovStrategy implements OovStrategy {
+
+	/**
+	 * Words remembered by default. Every one keeps a vector of the layer size, so with 300 floats
+	 * the memo holds at most about 20MB of heap, for as long as the strategy is referenced.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1 << 14;
+
+	private final OovStrategy _strategy;
+	private final int _maxSize;
+	private final ConcurrentMap<String, float[]> _vectors = new ConcurrentHashMap<String, float[]>();
+
+	public MemoizedOovStrategy(OovStrategy strategy, int maxSize) {
+		_strategy = strategy;
+		_maxSize = maxSize;
+	}
+
+	@Override
+	public float[] vector(String word) {
+		float vector[] = _vectors.get(word);
+		if(vector != null)
+			return vector;
+
+		vector = _strategy.vector(word);
+		if(_vectors.size() < _maxSize) {
+			float known[] = _vectors.putIfAbsent(word, vector);
+			if(known != null)
+				return known;
+		}
+		return vector;
+	}
+
+	@Override
+	public String getId() {
+		return _strategy.getId();
+	}
+
+	public int size() {
+		return _vectors.size();
+	}
+}
@@ -0,0 +1,32 @@
+package trifonov.stanislav.textmining.feature;
+
+/**
+ * The vector of a word that has no word2vec vector. A strategy is deterministic - the same word always
+ * gets the same vector - so features stay repeatable and cacheable, and it's safe to share between threads.
+ */
+public interface OovStrategy {
+
+	/**
+	 * @return the vector of an out of vocabulary word, not to be modified
+	 */
+	float[] vector(String word);
+
+	/**
+	 * @return what tells the vectors of this strategy from those of others, saved with the models trained with it
+	 */
+	String getId();
+
+	/**
+	 * @param name <code>ngram</code>, <code>seeded</code> or <code>zero</code>
+	 * @return a {@link MemoizedOovStrategy memoized} strategy of that name
+	 */
+	static OovStrategy forName(String name, int layerSize) {
+		if( "ngram".equals(name) )
+			return new MemoizedOovStrategy( new CharNGramOovStrategy(layerSize), MemoizedOovStrategy.DEFAULT_MAX_SIZE );
+		if( "seeded".equals(name) )
+			return new MemoizedOovStrategy( new SeededOovStrategy(layerSize, 0), MemoizedOovStrategy.DEFAULT_MAX_SIZE );
+		if( "zero".equals(name) )
+			return new ZeroOovStrategy(layerSize);
+		throw new IllegalArgumentException("Unknown OOV strategy " + name + ", one of ngram, seeded, zero");
+	}
+}
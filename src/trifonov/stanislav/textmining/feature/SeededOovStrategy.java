@@ -0,0 +1,28 @@
+package trifonov.stanislav.textmining.feature;
+
+/**
+ * A pseudo random unit vector per word, seeded by the word's hash: unrelated to any other word's vector
+ * (as the old random fallback), but always the same for the same word.
+ */
+public class SeededOovStrategy implements OovStrategy {
+
+	private final int _layerSize;
+	private final long _seed;
+
+	public SeededOovStrategy(int layerSize, long seed) {
+		_layerSize = layerSize;
+		_seed = seed;
+	}
+
+	@Override
+	public float[] vector(String word) {
+		double sum[] = new double[_layerSize];
+		CharNGramOovStrategy.addRandomVector( sum, CharNGrams.hash(word, 0, word.length()) ^ _seed );
+		return CharNGramOovStrategy.normalize(sum);
+	}
+
+	@Override
+	public String getId() {
+		return "seeded" + _seed + "/" + _layerSize;
+	}
+}
@@ -0,0 +1,168 @@
+package trifonov.stanislav.textmining.feature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import opennlp.tools.stemmer.PorterStemmer;
+import trifonov.stanislav.textmining.metrics.LatencyHistogram;
+import trifonov.stanislav.textmining.metrics.Metrics;
+
+/**
+ * A tweet parsed from its tags ("word/NER/POS word/NER/POS ..."), so it can be shared by all the pairs it is part of.
+ *
+ * Everything that depends on a single sentence is computed once, here: the words, POS tags and stems,
+ * and the hashes of the (case insensitive) 1, 2 and 3-grams of words and of stems.
+ * The sum of the words' vectors is added with {@link #computeEmbedding(Map)}.
+ */
+public class Sentence {
+
+	public static final int MAX_NGRAM = 3;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private static final LatencyHistogram PARSE_LATENCY = Metrics.latency("parse");
+	private static final LatencyHistogram STEM_LATENCY = Metrics.latency("stem");
+	private static final LatencyHistogram NGRAM_LATENCY = Metrics.latency("ngram.hash");
+
+	private final String _tags;
+	private final List<String> _words;
+	private final List<String> _posTags;
+	private final List<String> _stems;
+	private final long[][] _ngramHashes;
+	private final long[][] _stemNGramHashes;
+	private float[] _embedding = null;
+
+	private Sentence(String tags, List<String> words, List<String> posTags) {
+		_tags = tags;
+		_words = Collections.unmodifiableList(words);
+		_posTags = Collections.unmodifiableList(posTags);
+
+		long start = Metrics.start();
+		PorterStemmer stemmer = new PorterStemmer();
+		List<String> stems = new ArrayList<String>(words.size());
+		for(String word : words)
+			stems.add( stemmer.stem(word).toString() );
+		_stems = Collections.unmodifiableList(stems);
+		STEM_LATENCY.recordSince(start);
+
+		start = Metrics.start();
+		_ngramHashes = ngramHashes(_words);
+		_stemNGramHashes = ngramHashes(_stems);
+		NGRAM_LATENCY.recordSince(start);
+	}
+
+	public static Sentence parse(String tags) {
+		long start = Metrics.start();
+		String tokens[] = tags.split(" ");
+		List<String> words = new ArrayList<String>(tokens.length);
+		List<String> posTags = new ArrayList<String>(tokens.length);
+		for(int i=0; i<tokens.length; ++i) {
+			words.add( tokens[i].substring(0, tokens[i].indexOf('/')) );
+			posTags.add( tokens[i].split("/")[2] );
+		}
+		PARSE_LATENCY.recordSince(start);
+
+		return new Sentence(tags, words, posTags);
+	}
+
+	public String getTags() {
+		return _tags;
+	}
+
+	public List<String> getWords() {
+		return _words;
+	}
+
+	public List<String> getPOSTags() {
+		return _posTags;
+	}
+
+	public List<String> getStems() {
+		return _stems;
+	}
+
+	/**
+	 * @param n 1, 2 or 3
+	 * @return hashes of the lower case n-grams of words, in order of appearance
+	 */
+	public long[] getNGramHashes(int n) {
+		return _ngramHashes[n-1];
+	}
+
+	/**
+	 * @param n 1, 2 or 3
+	 * @return hashes of the lower case n-grams of stems, in order of appearance
+	 */
+	public long[] getStemNGramHashes(int n) {
+		return _stemNGramHashes[n-1];
+	}
+
+	/**
+	 * Sums the vectors of the sentence's words that have one
+	 */
+	public void computeEmbedding(Map<String, float[]> word2vecs) {
+		_embedding = sumWordVectors(word2vecs);
+	}
+
+	/**
+	 * @return the sum of the vectors of the sentence's words that have one, null if none has; not kept
+	 * as the sentence's {@link #getEmbedding() embedding}
+	 */
+	public float[] sumWordVectors(Map<String, float[]> word2vecs) {
+		float[] embedding = null;
+		for(String word : _words) {
+			float[] vector = word2vecs.get(word);
+			if(vector == null)
+				continue;
+			if(embedding == null)
+				embedding = new float[vector.length];
+			for(int i=0; i<vector.length; ++i)
+				embedding[i] += vector[i];
+		}
+		return embedding;
+	}
+
+	/**
+	 * @return the sum of the word vectors, null if not {@link #computeEmbedding(Map) computed} or no word has a vector
+	 */
+	public float[] getEmbedding() {
+		return _embedding;
+	}
+
+	private static long[][] ngramHashes(List<String> tokens) {
+		List<String> lowerCase = new ArrayList<String>(tokens.size());
+		for(String token : tokens)
+			lowerCase.add( token.toLowerCase(Locale.ROOT) );
+
+		long[][] hashes = new long[MAX_NGRAM][];
+		for(int n=1; n<=MAX_NGRAM; ++n) {
+			hashes[n-1] = new long[ Math.max(0, tokens.size() - n + 1) ];
+			for(int i=0; i<hashes[n-1].length; ++i)
+				hashes[n-1][i] = hash(lowerCase, i, n);
+		}
+		return hashes;
+	}
+
+	/**
+	 * 64 bit FNV-1a of the n tokens starting at <code>start</code>, joined with spaces
+	 */
+	private static long hash(List<String> tokens, int start, int n) {
+		long hash = FNV_OFFSET;
+		for(int i=start; i<start+n; ++i) {
+			if(i > start) {
+				hash ^= ' ';
+				hash *= FNV_PRIME;
+			}
+			String token = tokens.get(i);
+			for(int j=0; j<token.length(); ++j) {
+				hash ^= token.charAt(j);
+				hash *= FNV_PRIME;
+			}
+		}
+		return hash;
+	}
+}
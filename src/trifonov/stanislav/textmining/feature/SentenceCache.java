@@ -0,0 +1,71 @@
+package trifonov.stanislav.textmining.feature;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pre-processed {@link Sentence}s keyed by their raw tags, evicting the least recently used one
+ * when more than <code>maxSize</code> are cached. Thread safe.
+ */
+public class SentenceCache {
+
+	private final Map<String, float[]> _word2vecs;
+	private final Map<String, Sentence> _sentences;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	/**
+	 * @param word2vecs used for the sentences' embeddings, null to skip them when nothing reads them
+	 * (the features don't): an embedding costs a sum of 300 floats per known word of every sentence
+	 */
+	public SentenceCache(Map<String, float[]> word2vecs, final int maxSize) {
+		_word2vecs = word2vecs;
+		_sentences = new LinkedHashMap<String, Sentence>(Math.min(maxSize, 1 << 16), 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Sentence> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public Sentence get(String tags) {
+		synchronized (_sentences) {
+			Sentence sentence = _sentences.get(tags);
+			if(sentence != null) {
+				++_hits;
+				return sentence;
+			}
+			++_misses;
+		}
+
+		// parsed outside the lock; two threads may parse the same sentence, which is harmless
+		Sentence sentence = Sentence.parse(tags);
+		if(_word2vecs != null)
+			sentence.computeEmbedding(_word2vecs);
+
+		synchronized (_sentences) {
+			_sentences.put(tags, sentence);
+		}
+		return sentence;
+	}
+
+	public void clear() {
+		synchronized (_sentences) {
+			_sentences.clear();
+		}
+	}
+
+	public long getHits() {
+		synchronized (_sentences) {
+			return _hits;
+		}
+	}
+
+	public long getMisses() {
+		synchronized (_sentences) {
+			return _misses;
+		}
+	}
+}
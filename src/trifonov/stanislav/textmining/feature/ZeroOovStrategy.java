@@ -0,0 +1,23 @@
+package trifonov.stanislav.textmining.feature;
+
+/**
+ * No vector for unknown words: they are similar to nothing and add nothing to a sentence's vector
+ */
+public class ZeroOovStrategy implements OovStrategy {
+
+	private final float _zeros[];
+
+	public ZeroOovStrategy(int layerSize) {
+		_zeros = new float[layerSize];
+	}
+
+	@Override
+	public float[] vector(String word) {
+		return _zeros;
+	}
+
+	@Override
+	public String getId() {
+		return "zero/" + _zeros.length;
+	}
+}
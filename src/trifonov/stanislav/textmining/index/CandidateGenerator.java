@@ -0,0 +1,17 @@
+package trifonov.stanislav.textmining.index;
+
+import java.util.List;
+
+import trifonov.stanislav.textmining.feature.Sentence;
+
+/**
+ * Picks the pairs of a (large) set of sentences worth the full feature extraction and scoring,
+ * instead of all N*(N-1)/2 of them.
+ */
+public interface CandidateGenerator {
+
+	/**
+	 * @return distinct pairs of indexes in <code>sentences</code>, the smaller index first
+	 */
+	List<int[]> candidatePairs(List<Sentence> sentences);
+}
@@ -0,0 +1,118 @@
+package trifonov.stanislav.textmining.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import trifonov.stanislav.textmining.PIT2015;
+import trifonov.stanislav.textmining.Word2VecStore;
+import trifonov.stanislav.textmining.feature.Sentence;
+import trifonov.stanislav.textmining.feature.SentenceCache;
+import trifonov.stanislav.textmining.io.PairRecords;
+
+/**
+ * Compares the candidate generators against brute force over the distinct sentences of a PIT data file:
+ * the {@link IvfIndex} by recall of the nearest neighbours and the {@link MinHashLsh} by recall of the pairs
+ * with a high n-gram overlap.
+ *
+ * Usage: <code>CandidatesReport &lt;data file&gt; &lt;word2vec file&gt; [queries]</code>
+ */
+public class CandidatesReport {
+
+	private static final int K = 10;
+	private static final int[] PROBES = { 1, 2, 4, 8, 16 };
+	/** bands and rows of the reported LSH settings */
+	private static final int[][] LSH_SETTINGS = { {10, 5}, {20, 5}, {30, 4} };
+	private static final double LSH_JACCARD = 0.5;
+	private static final int LSH_MAX_BUCKET_SIZE = 100;
+	private static final int BRUTE_FORCE_SENTENCES = 5000;
+
+	public static void main(String[] args) throws IOException {
+		File dataFile = new File(args[0]);
+		Word2VecStore word2vecs = new Word2VecStore( new File(args[1]) );
+		int queriesCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+		List<Sentence> sentences = readSentences(dataFile, new SentenceCache(word2vecs, 0));
+		float[][] vectors = new float[sentences.size()][];
+		List<Integer> withEmbedding = new ArrayList<Integer>();
+		for(int i=0; i<vectors.length; ++i) {
+			vectors[i] = sentences.get(i).getEmbedding();
+			if(vectors[i] != null)
+				withEmbedding.add(i);
+		}
+
+		long start = System.nanoTime();
+		IvfIndex index = IvfIndex.ofSentences(sentences, 1);
+		System.out.println( String.format("%d sentences, %d with an embedding, index built in %.1fms",
+				sentences.size(), index.size(), (System.nanoTime() - start) / 1e6) );
+
+		Random random = new Random(1);
+		int[] queries = new int[ Math.min(queriesCount, withEmbedding.size()) ];
+		for(int i=0; i<queries.length; ++i)
+			queries[i] = withEmbedding.get( random.nextInt(withEmbedding.size()) );
+
+		for(int probes : PROBES)
+			System.out.println( index.compareWithBruteForce(vectors, queries, K, probes) );
+
+		reportMinHash( sentences.subList(0, Math.min(sentences.size(), BRUTE_FORCE_SENTENCES)) );
+	}
+
+	/**
+	 * Recall of the pairs with n-gram Jaccard similarity above {@link #LSH_JACCARD} and the speed-up
+	 * over comparing all pairs
+	 */
+	private static void reportMinHash(List<Sentence> sentences) {
+		long start = System.nanoTime();
+		long[][] shingles = new long[sentences.size()][];
+		for(int i=0; i<shingles.length; ++i)
+			shingles[i] = MinHashLsh.shingles(sentences.get(i));
+		Set<Long> similar = new HashSet<Long>();
+		for(int i=0; i<shingles.length; ++i)
+			for(int j=i+1; j<shingles.length; ++j)
+				if( MinHashLsh.jaccard(shingles[i], shingles[j]) >= LSH_JACCARD )
+					similar.add( ((long) i << 32) | j );
+		long bruteForceNanos = System.nanoTime() - start;
+		System.out.println( String.format("%d sentences, %d pairs with jaccard >= %.2f, brute force: %.1fms",
+				sentences.size(), similar.size(), LSH_JACCARD, bruteForceNanos / 1e6) );
+
+		for(int[] setting : LSH_SETTINGS) {
+			start = System.nanoTime();
+			List<int[]> candidates = new MinHashLsh(setting[0], setting[1], LSH_MAX_BUCKET_SIZE, 1).candidatePairs(sentences);
+			long lshNanos = System.nanoTime() - start;
+
+			int found = 0;
+			for(int[] pair : candidates)
+				if( similar.contains( ((long) pair[0] << 32) | pair[1] ) )
+					++found;
+			System.out.println( String.format(
+					"bands: %d\trows: %d\tcandidates: %d\trecall: %.3f\tlsh: %.1fms\tspeed-up: %.1fx",
+					setting[0], setting[1], candidates.size(), similar.isEmpty() ? 1 : found / (double) similar.size(),
+					lshNanos / 1e6, bruteForceNanos / (double) Math.max(1, lshNanos)) );
+		}
+	}
+
+	/**
+	 * @param dataFile any data file {@link PairRecords#open(File)} reads
+	 * @return the distinct sentences of both columns, in order of appearance
+	 */
+	static List<Sentence> readSentences(File dataFile, SentenceCache sentenceCache) throws IOException {
+		Set<String> tags = new LinkedHashSet<String>();
+		try( PairRecords records = PairRecords.open(dataFile) ) {
+			String columns[];
+			while( (columns = records.next()) != null ) {
+				tags.add( columns[PIT2015.COLUMN_INDEX_SENT1TAG] );
+				tags.add( columns[PIT2015.COLUMN_INDEX_SENT2TAG] );
+			}
+		}
+
+		List<Sentence> sentences = new ArrayList<Sentence>(tags.size());
+		for(String sentenceTags : tags)
+			sentences.add( sentenceCache.get(sentenceTags) );
+		return sentences;
+	}
+}
@@ -0,0 +1,60 @@
+package trifonov.stanislav.textmining.index;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import trifonov.stanislav.textmining.feature.Sentence;
+
+/**
+ * Pairs every sentence with its nearest neighbours by the sum of its word vectors, found through an {@link IvfIndex}.
+ * Sentences without known words get no candidates.
+ */
+public class EmbeddingCandidates implements CandidateGenerator {
+
+	private final Map<String, float[]> _word2vecs;
+	private final int _neighbours;
+	private final int _probes;
+	private final long _seed;
+
+	/**
+	 * @param neighbours candidates per sentence
+	 * @param probes lists of the index scanned per sentence
+	 */
+	public EmbeddingCandidates(Map<String, float[]> word2vecs, int neighbours, int probes, long seed) {
+		_word2vecs = word2vecs;
+		_neighbours = neighbours;
+		_probes = probes;
+		_seed = seed;
+	}
+
+	@Override
+	public List<int[]> candidatePairs(List<Sentence> sentences) {
+		// computed here, as the sentences usually come from a cache that skips their embeddings
+		float[][] embeddings = new float[sentences.size()][];
+		for(int i=0; i<embeddings.length; ++i)
+			embeddings[i] = sentences.get(i).sumWordVectors(_word2vecs);
+		IvfIndex index = new IvfIndex(embeddings, (int) Math.sqrt(sentences.size()), _seed);
+
+		Set<Long> seen = new HashSet<Long>();
+		List<int[]> pairs = new ArrayList<int[]>();
+		for(int i=0; i<sentences.size(); ++i) {
+			float[] embedding = embeddings[i];
+			if(embedding == null)
+				continue;
+
+			// the sentence itself is usually its own nearest neighbour
+			for(int neighbour : index.search(embedding, _neighbours + 1, _probes)) {
+				if(neighbour == i)
+					continue;
+				int first = Math.min(i, neighbour);
+				int second = Math.max(i, neighbour);
+				if( seen.add( ((long) first << 32) | second ) )
+					pairs.add( new int[] { first, second } );
+			}
+		}
+		return pairs;
+	}
+}
@@ -0,0 +1,298 @@
+package trifonov.stanislav.textmining.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import trifonov.stanislav.textmining.feature.Sentence;
+
+/**
+ * Approximate nearest neighbours (by cosine similarity) with an inverted file: the vectors are split
+ * between the closest of <code>listsCount</code> k-means centroids and a search scans only the lists
+ * of the <code>probes</code> centroids closest to the query.
+ *
+ * Used to generate paraphrase candidates from the sentences' embeddings instead of scoring all O(N<sup>2</sup>) pairs.
+ */
+public class IvfIndex {
+
+	private static final int KMEANS_ITERATIONS = 10;
+	private static final int KMEANS_SAMPLES_PER_LIST = 64;
+
+	private final int _dimensions;
+	private final float[][] _centroids;
+	/** ids of the vectors in every list */
+	private final int[][] _listIds;
+	/** the (normalized) vectors of every list, one after another */
+	private final float[][] _listVectors;
+	private final int _size;
+
+	/**
+	 * @param vectors indexed by their position; null vectors are skipped
+	 * @param listsCount number of k-means centroids, sqrt(N) is a good start
+	 */
+	public IvfIndex(float[][] vectors, int listsCount, long seed) {
+		int dimensions = 0;
+		List<Integer> ids = new ArrayList<Integer>(vectors.length);
+		for(int i=0; i<vectors.length; ++i)
+			if(vectors[i] != null) {
+				ids.add(i);
+				dimensions = vectors[i].length;
+			}
+		_dimensions = dimensions;
+		_size = ids.size();
+
+		// an empty index has no lists and finds nothing
+		listsCount = _size == 0 ? 0 : Math.max(1, Math.min(listsCount, _size));
+		_centroids = trainCentroids(vectors, ids, listsCount, new Random(seed));
+
+		// the closest centroid by cosine is the one with the largest dot product with the vector as it is,
+		// so only the list blocks hold normalized vectors
+		int[] assignments = new int[vectors.length];
+		int[] listSizes = new int[listsCount];
+		for(int id : ids) {
+			assignments[id] = closestCentroid(vectors[id]);
+			listSizes[assignments[id]]++;
+		}
+
+		_listIds = new int[listsCount][];
+		_listVectors = new float[listsCount][];
+		for(int list=0; list<listsCount; ++list) {
+			_listIds[list] = new int[listSizes[list]];
+			_listVectors[list] = new float[listSizes[list] * _dimensions];
+		}
+		int[] filled = new int[listsCount];
+		for(int id : ids) {
+			int list = assignments[id];
+			int position = filled[list]++;
+			_listIds[list][position] = id;
+			normalize(vectors[id], _listVectors[list], position * _dimensions);
+		}
+	}
+
+	/**
+	 * Index of sentences by their {@link Sentence#getEmbedding() embeddings}; ids are the positions in the list
+	 */
+	public static IvfIndex ofSentences(List<Sentence> sentences, long seed) {
+		float[][] vectors = new float[sentences.size()][];
+		for(int i=0; i<vectors.length; ++i)
+			vectors[i] = sentences.get(i).getEmbedding();
+		return new IvfIndex(vectors, (int) Math.sqrt(sentences.size()), seed);
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return ids of (approximately) the k most similar vectors, most similar first
+	 */
+	public int[] search(float[] query, int k, int probes) {
+		float[] q = normalize(query);
+
+		int listsCount = _centroids.length;
+		final float[] centroidSimilarities = new float[listsCount];
+		Integer[] lists = new Integer[listsCount];
+		for(int list=0; list<listsCount; ++list) {
+			centroidSimilarities[list] = dot(q, _centroids[list], 0);
+			lists[list] = list;
+		}
+		Arrays.sort(lists, (a, b) -> Float.compare(centroidSimilarities[b], centroidSimilarities[a]));
+
+		TopK top = new TopK(k);
+		for(int p=0; p<Math.min(probes, listsCount); ++p) {
+			int list = lists[p];
+			int[] ids = _listIds[list];
+			float[] listVectors = _listVectors[list];
+			for(int i=0; i<ids.length; ++i)
+				top.offer( ids[i], dot(q, listVectors, i * _dimensions) );
+		}
+		return top.ids();
+	}
+
+	/**
+	 * Exact search, the baseline for {@link #compareWithBruteForce(float[][], int[], int, int)}
+	 */
+	public int[] searchExhaustive(float[] query, int k) {
+		return search(query, k, _centroids.length);
+	}
+
+	/**
+	 * Recall@k of {@link #search(float[], int, int)} against the exact neighbours and the speed-up over them
+	 * @param vectors the indexed vectors
+	 * @param queries ids of the vectors used as queries
+	 */
+	public RecallReport compareWithBruteForce(float[][] vectors, int[] queries, int k, int probes) {
+		long bruteForceNanos = 0;
+		long approximateNanos = 0;
+		long found = 0;
+		long expected = 0;
+
+		for(int query : queries) {
+			if(vectors[query] == null)
+				continue;
+
+			long start = System.nanoTime();
+			int[] exact = searchExhaustive(vectors[query], k);
+			bruteForceNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int[] approximate = search(vectors[query], k, probes);
+			approximateNanos += System.nanoTime() - start;
+
+			expected += exact.length;
+			for(int id : exact)
+				for(int candidate : approximate)
+					if(candidate == id) {
+						++found;
+						break;
+					}
+		}
+
+		return new RecallReport(k, probes, expected == 0 ? 1 : found / (double) expected,
+				bruteForceNanos, approximateNanos);
+	}
+
+	public static class RecallReport {
+		public final int _k;
+		public final int _probes;
+		public final double _recall;
+		public final long _bruteForceNanos;
+		public final long _approximateNanos;
+
+		RecallReport(int k, int probes, double recall, long bruteForceNanos, long approximateNanos) {
+			_k = k;
+			_probes = probes;
+			_recall = recall;
+			_bruteForceNanos = bruteForceNanos;
+			_approximateNanos = approximateNanos;
+		}
+
+		public double getSpeedUp() {
+			return _bruteForceNanos / (double) Math.max(1, _approximateNanos);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("recall@%d: %.3f\tprobes: %d\tbrute force: %.1fms\tivf: %.1fms\tspeed-up: %.1fx",
+					_k, _recall, _probes, _bruteForceNanos / 1e6, _approximateNanos / 1e6, getSpeedUp());
+		}
+	}
+
+	/**
+	 * K-means of (normalized copies of) a sample of at most {@link #KMEANS_SAMPLES_PER_LIST} vectors per list
+	 */
+	private float[][] trainCentroids(float[][] vectors, List<Integer> ids, int listsCount, Random random) {
+		if(listsCount == 0)
+			return new float[0][];
+
+		List<Integer> sampleIds = new ArrayList<Integer>(ids);
+		java.util.Collections.shuffle(sampleIds, random);
+		if(sampleIds.size() > listsCount * KMEANS_SAMPLES_PER_LIST)
+			sampleIds = sampleIds.subList(0, listsCount * KMEANS_SAMPLES_PER_LIST);
+		float[][] sample = new float[sampleIds.size()][];
+		for(int i=0; i<sample.length; ++i)
+			sample[i] = normalize(vectors[sampleIds.get(i)]);
+
+		float[][] centroids = new float[listsCount][];
+		for(int list=0; list<listsCount; ++list)
+			centroids[list] = sample[list].clone();
+
+		float[][] sums = new float[listsCount][_dimensions];
+		int[] counts = new int[listsCount];
+		for(int iteration=0; iteration<KMEANS_ITERATIONS; ++iteration) {
+			for(int list=0; list<listsCount; ++list)
+				Arrays.fill(sums[list], 0);
+			Arrays.fill(counts, 0);
+
+			for(float[] vector : sample) {
+				int closest = closestCentroid(centroids, vector);
+				counts[closest]++;
+				for(int d=0; d<_dimensions; ++d)
+					sums[closest][d] += vector[d];
+			}
+
+			for(int list=0; list<listsCount; ++list)
+				if(counts[list] > 0)
+					centroids[list] = normalize(sums[list]);
+		}
+
+		return centroids;
+	}
+
+	private int closestCentroid(float[] vector) {
+		return closestCentroid(_centroids, vector);
+	}
+
+	private static int closestCentroid(float[][] centroids, float[] vector) {
+		int closest = 0;
+		float maxSimilarity = Float.NEGATIVE_INFINITY;
+		for(int list=0; list<centroids.length; ++list) {
+			float similarity = dot(vector, centroids[list], 0);
+			if(similarity > maxSimilarity) {
+				maxSimilarity = similarity;
+				closest = list;
+			}
+		}
+		return closest;
+	}
+
+	private static float dot(float[] a, float[] b, int offset) {
+		float dot = 0;
+		for(int i=0; i<a.length; ++i)
+			dot += a[i] * b[offset+i];
+		return dot;
+	}
+
+	private static float[] normalize(float[] vector) {
+		float[] normalized = new float[vector.length];
+		normalize(vector, normalized, 0);
+		return normalized;
+	}
+
+	/**
+	 * Writes the unit vector of <code>vector</code> at <code>offset</code>, zeros for a zero vector
+	 */
+	private static void normalize(float[] vector, float[] normalized, int offset) {
+		double norm = 0;
+		for(float value : vector)
+			norm += value * value;
+		norm = Math.sqrt(norm);
+
+		if(norm > 0)
+			for(int i=0; i<vector.length; ++i)
+				normalized[offset+i] = (float) (vector[i] / norm);
+	}
+
+	/**
+	 * The k ids with the highest similarity offered so far
+	 */
+	private static class TopK {
+		private final int _k;
+		private final PriorityQueue<long[]> _heap;
+
+		TopK(int k) {
+			_k = k;
+			// [similarity bits, id], the least similar on top
+			_heap = new PriorityQueue<long[]>(Math.max(1, k),
+					(a, b) -> Float.compare(Float.intBitsToFloat((int) a[0]), Float.intBitsToFloat((int) b[0])) );
+		}
+
+		void offer(int id, float similarity) {
+			if(_heap.size() < _k)
+				_heap.add( new long[] { Float.floatToIntBits(similarity), id } );
+			else if( _k > 0 && similarity > Float.intBitsToFloat((int) _heap.peek()[0]) ) {
+				_heap.poll();
+				_heap.add( new long[] { Float.floatToIntBits(similarity), id } );
+			}
+		}
+
+		int[] ids() {
+			int[] ids = new int[_heap.size()];
+			for(int i=ids.length-1; i>=0; --i)
+				ids[i] = (int) _heap.poll()[1];
+			return ids;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package trifonov.stanislav.textmining.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import trifonov.stanislav.textmining.feature.Sentence;
+
+/**
+ * Pairs the sentences whose sets of 1, 2 and 3-grams (the shingles of
+ * {@link trifonov.stanislav.textmining.feature.FeaturesExtractor#nGramOverlaps(long[], long[], long[], long[], long[], long[])})
+ * have a high Jaccard similarity, in sub-quadratic time.
+ *
+ * Every sentence gets a MinHash signature of <code>bands * rows</code> values; two sentences become
+ * candidates when all the values of at least one band match. The probability of that for a Jaccard
+ * similarity s is 1 - (1 - s<sup>rows</sup>)<sup>bands</sup>, so more rows make the threshold steeper
+ * and more bands make it lower. E.g. 20 bands of 5 rows pick pairs above ~0.55.
+ */
+public class MinHashLsh implements CandidateGenerator {
+
+	private final int _bands;
+	private final int _rows;
+	private final int _maxBucketSize;
+	private final long[] _seeds;
+
+	/**
+	 * @param maxBucketSize members of larger buckets (e.g. of a retweet storm) are paired only with
+	 * the next <code>maxBucketSize</code> members, keeping the number of candidates linear
+	 */
+	public MinHashLsh(int bands, int rows, int maxBucketSize, long seed) {
+		_bands = bands;
+		_rows = rows;
+		_maxBucketSize = maxBucketSize;
+		_seeds = new long[bands * rows];
+		Random random = new Random(seed);
+		for(int i=0; i<_seeds.length; ++i)
+			_seeds[i] = random.nextLong();
+	}
+
+	/**
+	 * @return the distinct hashes of the lower case 1, 2 and 3-grams of the sentence's words, sorted
+	 */
+	public static long[] shingles(Sentence sentence) {
+		int count = 0;
+		for(int n=1; n<=Sentence.MAX_NGRAM; ++n)
+			count += sentence.getNGramHashes(n).length;
+
+		long[] shingles = new long[count];
+		int position = 0;
+		for(int n=1; n<=Sentence.MAX_NGRAM; ++n) {
+			long[] hashes = sentence.getNGramHashes(n);
+			System.arraycopy(hashes, 0, shingles, position, hashes.length);
+			position += hashes.length;
+		}
+
+		Arrays.sort(shingles);
+		int distinct = 0;
+		for(int i=0; i<shingles.length; ++i)
+			if(i == 0 || shingles[i] != shingles[i-1])
+				shingles[distinct++] = shingles[i];
+		return Arrays.copyOf(shingles, distinct);
+	}
+
+	/**
+	 * @param a sorted distinct values, as from {@link #shingles(Sentence)}
+	 * @param b sorted distinct values
+	 */
+	public static double jaccard(long[] a, long[] b) {
+		if(a.length == 0 && b.length == 0)
+			return 0;
+
+		int common = 0;
+		for(int i=0, j=0; i<a.length && j<b.length; ) {
+			if(a[i] == b[j]) {
+				++common;
+				++i;
+				++j;
+			}
+			else if(a[i] < b[j])
+				++i;
+			else
+				++j;
+		}
+		return common / (double) (a.length + b.length - common);
+	}
+
+	public long[] signature(long[] shingles) {
+		long[] signature = new long[_seeds.length];
+		Arrays.fill(signature, Long.MAX_VALUE);
+		for(long shingle : shingles)
+			for(int i=0; i<_seeds.length; ++i) {
+				long value = mix(shingle ^ _seeds[i]);
+				if(value < signature[i])
+					signature[i] = value;
+			}
+		return signature;
+	}
+
+	@Override
+	public List<int[]> candidatePairs(List<Sentence> sentences) {
+		long[][] signatures = new long[sentences.size()][];
+		for(int i=0; i<signatures.length; ++i) {
+			long[] shingles = shingles(sentences.get(i));
+			if(shingles.length > 0)
+				signatures[i] = signature(shingles);
+		}
+
+		Set<Long> seen = new HashSet<Long>();
+		List<int[]> pairs = new ArrayList<int[]>();
+		Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+		for(int band=0; band<_bands; ++band) {
+			buckets.clear();
+			for(int i=0; i<signatures.length; ++i) {
+				if(signatures[i] == null)
+					continue;
+
+				long key = band;
+				for(int row=band*_rows; row<(band+1)*_rows; ++row)
+					key = mix(key * 31 + signatures[i][row]);
+
+				List<Integer> bucket = buckets.get(key);
+				if(bucket == null) {
+					bucket = new ArrayList<Integer>(2);
+					buckets.put(key, bucket);
+				}
+				bucket.add(i);
+			}
+
+			for(List<Integer> bucket : buckets.values())
+				for(int i=0; i<bucket.size(); ++i)
+					for(int j=i+1; j<Math.min(bucket.size(), i+1+_maxBucketSize); ++j) {
+						// indexes in a bucket are increasing
+						int first = bucket.get(i);
+						int second = bucket.get(j);
+						if( seen.add( ((long) first << 32) | second ) )
+							pairs.add( new int[] { first, second } );
+					}
+		}
+		return pairs;
+	}
+
+	/**
+	 * The finalizer of SplitMix64, a cheap 64-bit hash with a good avalanche
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,227 @@
+package trifonov.stanislav.textmining.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import trifonov.stanislav.textmining.PIT2015;
+
+/**
+ * Pairs of a pre-tokenized binary data file, written once from a TSV one by {@link #convert(PairRecords, File)}.
+ * Only what the features use is kept: the words and POS tags of the tokens (the named entity and chunk tags
+ * are dropped), the topic and the label.
+ *
+ * Layout (big-endian, ids are unsigned LEB128 varints):
+ * <pre>
+ * int     magic "PITB"
+ * short   format version
+ * int     symbols count, followed by each symbol (short length + UTF-8 bytes):
+ *         the distinct words, POS tags, topic ids, topic names and labels
+ * int     pairs count, followed by each pair:
+ *         topic id, topic name, label as symbol ids
+ *         for each sentence: tokens count, then word id and POS id of every token
+ * </pre>
+ * The columns of a pair are rebuilt with tags of the form <code>word/O/POS</code>, which parse to the same
+ * {@link trifonov.stanislav.textmining.feature.Sentence} as the original tags, and with sentences of the words
+ * joined by spaces.
+ */
+public class BinaryPairRecords implements PairRecords {
+
+	private static final int MAGIC = 0x50495442;
+	private static final short VERSION = 1;
+
+	private final FileChannel _channel;
+	private final ByteBuffer _buffer = ByteBuffer.allocate(TsvPairRecords.READ_SIZE);
+	private final String[] _symbols;
+	private final int _pairsCount;
+	private int _pairsRead = 0;
+	private final StringBuilder _words = new StringBuilder();
+	private final StringBuilder _tags = new StringBuilder();
+
+	public BinaryPairRecords(File dataFile) throws IOException {
+		_channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+		try {
+			_buffer.limit(0);
+			require(Integer.BYTES + Short.BYTES + Integer.BYTES);
+			if(_buffer.getInt() != MAGIC)
+				throw new IOException("Not a binary PIT data file: " + dataFile);
+			short version = _buffer.getShort();
+			if(version != VERSION)
+				throw new IOException("Unsupported binary PIT data version " + version + ": " + dataFile);
+
+			_symbols = new String[_buffer.getInt()];
+			for(int i=0; i<_symbols.length; ++i)
+				_symbols[i] = readString();
+
+			require(Integer.BYTES);
+			_pairsCount = _buffer.getInt();
+		}
+		catch (IOException e) {
+			_channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public String[] next() throws IOException {
+		if(_pairsRead == _pairsCount)
+			return null;
+		++_pairsRead;
+
+		String columns[] = new String[PIT2015.COLUMN_INDEX_SENT2TAG + 1];
+		columns[PIT2015.COLUMN_INDEX_TOPICID] = _symbols[readVarint()];
+		columns[PIT2015.COLUMN_INDEX_TOPIC] = _symbols[readVarint()];
+		columns[PIT2015.COLUMN_INDEX_LABEL] = _symbols[readVarint()];
+		readSentence();
+		columns[PIT2015.COLUMN_INDEX_SENT1] = _words.toString();
+		columns[PIT2015.COLUMN_INDEX_SENT1TAG] = _tags.toString();
+		readSentence();
+		columns[PIT2015.COLUMN_INDEX_SENT2] = _words.toString();
+		columns[PIT2015.COLUMN_INDEX_SENT2TAG] = _tags.toString();
+		return columns;
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+	/**
+	 * Writes all pairs of <code>in</code> to a binary data file
+	 */
+	public static void convert(PairRecords in, File binaryFile) throws IOException {
+		Map<String, Integer> symbols = new LinkedHashMap<String, Integer>();
+		ByteArrayOutputStream pairs = new ByteArrayOutputStream(TsvPairRecords.READ_SIZE);
+		int pairsCount = 0;
+
+		String columns[];
+		while( (columns = in.next()) != null ) {
+			writeVarint(pairs, symbol(symbols, columns[PIT2015.COLUMN_INDEX_TOPICID]));
+			writeVarint(pairs, symbol(symbols, columns[PIT2015.COLUMN_INDEX_TOPIC]));
+			writeVarint(pairs, symbol(symbols, columns[PIT2015.COLUMN_INDEX_LABEL]));
+			writeSentence(pairs, symbols, columns[PIT2015.COLUMN_INDEX_SENT1TAG]);
+			writeSentence(pairs, symbols, columns[PIT2015.COLUMN_INDEX_SENT2TAG]);
+			++pairsCount;
+		}
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream( new BufferedOutputStream(new FileOutputStream(binaryFile), TsvPairRecords.READ_SIZE) );
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(symbols.size());
+			for(String symbol : symbols.keySet()) {
+				byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+			out.writeInt(pairsCount);
+			pairs.writeTo(out);
+		}
+		finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	/**
+	 * Usage: <code>BinaryPairRecords &lt;data file&gt; &lt;binary file&gt;</code>, the data file may be gzip compressed
+	 */
+	public static void main(String[] args) throws IOException {
+		long start = System.currentTimeMillis();
+		PairRecords in = PairRecords.open( new File(args[0]) );
+		try {
+			convert(in, new File(args[1]));
+		}
+		finally {
+			in.close();
+		}
+		System.out.println("Converted in " + (System.currentTimeMillis()-start) + "ms.");
+	}
+
+	private void readSentence() throws IOException {
+		_words.setLength(0);
+		_tags.setLength(0);
+		int tokensCount = readVarint();
+		for(int i=0; i<tokensCount; ++i) {
+			String word = _symbols[readVarint()];
+			String posTag = _symbols[readVarint()];
+			if(i > 0) {
+				_words.append(' ');
+				_tags.append(' ');
+			}
+			_words.append(word);
+			_tags.append(word).append("/O/").append(posTag);
+		}
+	}
+
+	private static void writeSentence(ByteArrayOutputStream out, Map<String, Integer> symbols, String tags) {
+		// tokenized as in Sentence.parse
+		String tokens[] = tags.split(" ");
+		writeVarint(out, tokens.length);
+		for(String token : tokens) {
+			writeVarint(out, symbol(symbols, token.substring(0, token.indexOf('/'))));
+			writeVarint(out, symbol(symbols, token.split("/")[2]));
+		}
+	}
+
+	private static int symbol(Map<String, Integer> symbols, String value) {
+		Integer id = symbols.get(value);
+		if(id == null) {
+			id = symbols.size();
+			symbols.put(value, id);
+		}
+		return id;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while( (value & ~0x7F) != 0 ) {
+			out.write( (value & 0x7F) | 0x80 );
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private int readVarint() throws IOException {
+		int value = 0;
+		for(int shift=0; ; shift+=7) {
+			require(1);
+			byte b = _buffer.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0)
+				return value;
+		}
+	}
+
+	private String readString() throws IOException {
+		require(Short.BYTES);
+		int length = _buffer.getShort() & 0xFFFF;
+		require(length);
+		String value = new String(_buffer.array(), _buffer.position(), length, StandardCharsets.UTF_8);
+		_buffer.position(_buffer.position() + length);
+		return value;
+	}
+
+	/**
+	 * Makes at least <code>bytes</code> bytes available in the buffer, reading the next chunk of the file
+	 */
+	private void require(int bytes) throws IOException {
+		if(_buffer.remaining() >= bytes)
+			return;
+
+		_buffer.compact();
+		while(_buffer.position() < bytes)
+			if(_channel.read(_buffer) < 0)
+				throw new IOException("Unexpected end of the binary PIT data file");
+		_buffer.flip();
+	}
+}
@@ -0,0 +1,34 @@
+package trifonov.stanislav.textmining.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import trifonov.stanislav.textmining.PIT2015;
+
+/**
+ * Sequential reader of the pairs of a data file, each as the columns of a PIT TSV line
+ * (see {@link PIT2015#COLUMN_INDEX_TOPICID} and the other column indexes).
+ */
+public interface PairRecords extends Closeable {
+
+	/** extension of the {@link BinaryPairRecords binary pre-tokenized} data files */
+	String EXTENSION_BINARY = ".pitb";
+	/** extension of gzip compressed TSV data files */
+	String EXTENSION_GZIP = ".gz";
+
+	/**
+	 * @return the columns of the next pair, null at the end of the file
+	 */
+	String[] next() throws IOException;
+
+	/**
+	 * Opens a data file by its extension: {@value #EXTENSION_BINARY}, {@value #EXTENSION_GZIP} or plain TSV
+	 */
+	static PairRecords open(File dataFile) throws IOException {
+		String name = dataFile.getName();
+		if( name.endsWith(EXTENSION_BINARY) )
+			return new BinaryPairRecords(dataFile);
+		return new TsvPairRecords(dataFile, name.endsWith(EXTENSION_GZIP));
+	}
+}
@@ -0,0 +1,209 @@
+package trifonov.stanislav.textmining.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import trifonov.stanislav.textmining.metrics.LatencyHistogram;
+import trifonov.stanislav.textmining.metrics.Metrics;
+
+/**
+ * Writes the predictions of a PIT run, one <code>true|false\tscore</code> line per pair with the score
+ * clipped to [0, 1] and rounded to 4 decimals (exactly as <code>String.format(Locale.US, "%.4f", score)</code>).
+ *
+ * Formatting and writing run on a separate thread: {@link #write(double[], int)} hands a batch over through
+ * a bounded queue, blocking only when the writer is <code>queueCapacity</code> batches behind. The lines
+ * are formatted straight into a reusable byte buffer which is written through a {@link FileChannel}.
+ */
+public class PredictionWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int DECIMALS = 4;
+	private static final long SCALE = 10000;
+	/** longest line: "false\t" + "1.0000\n" or "NaN\n" */
+	private static final int MAX_LINE_LENGTH = 16;
+	private static final byte[] TRUE = "true\t".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FALSE = "false\t".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+	/** formatting and writing of a batch, on the writer thread */
+	private static final LatencyHistogram WRITE_LATENCY = Metrics.latency("write");
+	private static final LongAdder WRITTEN_LINES = Metrics.counter("write.lines");
+
+	private static class Batch {
+		final double[] _estimations;
+		final int _count;
+
+		Batch(double[] estimations, int count) {
+			_estimations = estimations;
+			_count = count;
+		}
+	}
+
+	private static final Batch END = new Batch(new double[0], 0);
+
+	private final FileChannel _channel;
+	private final float _labelBorder;
+	private final BlockingQueue<Batch> _batches;
+	/** spare arrays returned by the writer thread, to be filled again by {@link #write(double[], int)} */
+	private final BlockingQueue<double[]> _spareArrays;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final Thread _writer;
+	private volatile IOException _error = null;
+	private boolean _closed = false;
+
+	/**
+	 * @param labelBorder estimations from it up are labeled as paraphrases
+	 */
+	public PredictionWriter(File outputFile, float labelBorder, int queueCapacity) throws IOException {
+		_channel = FileChannel.open(outputFile.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		_labelBorder = labelBorder;
+		_batches = new ArrayBlockingQueue<Batch>(queueCapacity);
+		_spareArrays = new ArrayBlockingQueue<double[]>(queueCapacity + 1);
+		_writer = new Thread( () -> writeBatches(), "prediction-writer" );
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	/**
+	 * Queues the first <code>count</code> estimations; the array may be reused right after the call
+	 */
+	public void write(double[] estimations, int count) throws IOException {
+		checkError();
+		double[] copy = _spareArrays.poll();
+		if(copy == null || copy.length < count)
+			copy = new double[Math.max(count, estimations.length)];
+		System.arraycopy(estimations, 0, copy, 0, count);
+		put( new Batch(copy, count) );
+	}
+
+	public void write(float[] estimations, int count) throws IOException {
+		checkError();
+		double[] copy = _spareArrays.poll();
+		if(copy == null || copy.length < count)
+			copy = new double[Math.max(count, estimations.length)];
+		for(int i=0; i<count; ++i)
+			copy[i] = estimations[i];
+		put( new Batch(copy, count) );
+	}
+
+	/**
+	 * Waits for the queued lines to be written and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		if(_closed)
+			return;
+		_closed = true;
+
+		try {
+			put(END);
+			_writer.join();
+		}
+		catch (InterruptedIOException e) {
+			_writer.interrupt();
+			throw e;
+		}
+		catch (InterruptedException e) {
+			_writer.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the prediction writer");
+		}
+		finally {
+			_channel.close();
+		}
+		checkError();
+	}
+
+	private void put(Batch batch) throws IOException {
+		try {
+			// a failed writer takes no more batches
+			while( !_batches.offer(batch, 100, TimeUnit.MILLISECONDS) )
+				checkError();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing predictions");
+		}
+	}
+
+	private void checkError() throws IOException {
+		if(_error != null)
+			throw new IOException("Writing predictions failed", _error);
+	}
+
+	private void writeBatches() {
+		try {
+			Batch batch;
+			while( (batch = _batches.take()) != END ) {
+				long start = Metrics.start();
+				for(int i=0; i<batch._count; ++i) {
+					if(_buffer.remaining() < MAX_LINE_LENGTH)
+						flush();
+					double estimation = batch._estimations[i];
+					_buffer.put(estimation >= _labelBorder ? TRUE : FALSE);
+					appendFixed( _buffer, Math.max(Math.min(estimation, 1.0), 0.0) );
+					_buffer.put((byte) '\n');
+				}
+				WRITE_LATENCY.recordSince(start);
+				Metrics.count(WRITTEN_LINES, batch._count);
+				_spareArrays.offer(batch._estimations);
+			}
+			flush();
+		}
+		catch (IOException e) {
+			_error = e;
+		}
+		catch (InterruptedException e) {
+			_error = new InterruptedIOException("Prediction writer interrupted");
+		}
+		catch (Throwable e) {
+			// a dead writer without an error would leave put() and close() waiting forever
+			_error = new IOException("Prediction writer failed", e);
+			if(e instanceof Error)
+				throw (Error) e;
+		}
+	}
+
+	private void flush() throws IOException {
+		_buffer.flip();
+		while( _buffer.hasRemaining() )
+			_channel.write(_buffer);
+		_buffer.clear();
+	}
+
+	/**
+	 * Appends a value in [0, 1] (or NaN) with {@link #DECIMALS} decimals, rounded half up
+	 */
+	static void appendFixed(ByteBuffer buffer, double value) {
+		if(Double.isNaN(value)) {
+			buffer.put(NAN);
+			return;
+		}
+
+		double scaled = value * SCALE;
+		long rounded = Math.round(scaled);
+		// the product carries a rounding error, so near a tie round as Formatter does: half up on the shortest decimal form
+		if( Math.abs(scaled - Math.floor(scaled) - 0.5) < 1e-6 )
+			rounded = new BigDecimal( Double.toString(value) ).setScale(DECIMALS, RoundingMode.HALF_UP).unscaledValue().longValue();
+
+		buffer.put( (byte) ('0' + rounded / SCALE) );
+		buffer.put( (byte) '.' );
+		long fraction = rounded % SCALE;
+		for(long digit=SCALE/10; digit>0; digit/=10) {
+			buffer.put( (byte) ('0' + fraction / digit) );
+			fraction %= digit;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package trifonov.stanislav.textmining.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pairs of a (gzip compressed) PIT TSV file, decoded as UTF-8. The file is read from a {@link FileChannel}
+ * in {@link #READ_SIZE} chunks.
+ */
+public class TsvPairRecords implements PairRecords {
+
+	static final int READ_SIZE = 1 << 20;
+	private static final int CHARS_BUFFER_SIZE = 1 << 16;
+
+	private final BufferedReader _reader;
+
+	public TsvPairRecords(File dataFile, boolean gzipped) throws IOException {
+		FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+		try {
+			InputStream in = new BufferedInputStream( Channels.newInputStream(channel), READ_SIZE );
+			if(gzipped)
+				in = new GZIPInputStream(in, READ_SIZE);
+			_reader = new BufferedReader( new InputStreamReader(in, StandardCharsets.UTF_8), CHARS_BUFFER_SIZE );
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public String[] next() throws IOException {
+		String line = _reader.readLine();
+		return line == null ? null : line.split("\t");
+	}
+
+	@Override
+	public void close() throws IOException {
+		_reader.close();
+	}
+}
@@ -0,0 +1,143 @@
+package trifonov.stanislav.textmining.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in nanoseconds, counted in log-linear buckets as in HdrHistogram: every power of two range is
+ * split into {@link #SUB_BUCKETS} equal buckets, so any recorded value is known within about 3%
+ * (values below {@link #SUB_BUCKETS} exactly). Recording is lock-free and takes no allocation.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** enough buckets for any positive long */
+	private static final int BUCKETS_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String _name;
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS_COUNT);
+	private final LongAdder _sum = new LongAdder();
+	private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+	LatencyHistogram(String name) {
+		_name = name;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		_counts.incrementAndGet( bucket(nanos) );
+		_sum.add(nanos);
+		_max.accumulate(nanos);
+	}
+
+	/**
+	 * Records the time since a {@link Metrics#start()}; does nothing when that was taken with the metrics disabled
+	 */
+	public void recordSince(long startNanos) {
+		if(startNanos != 0)
+			record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Drops the recorded values; records during the call may survive it
+	 */
+	public void reset() {
+		for(int i=0; i<_counts.length(); ++i)
+			_counts.set(i, 0);
+		_sum.reset();
+		_max.reset();
+	}
+
+	/**
+	 * The counts at the time of the call. Concurrent records may or may not be part of it, so the total
+	 * is taken from the buckets themselves.
+	 */
+	public Snapshot snapshot() {
+		long counts[] = new long[BUCKETS_COUNT];
+		long count = 0;
+		for(int i=0; i<counts.length; ++i) {
+			counts[i] = _counts.get(i);
+			count += counts[i];
+		}
+		return new Snapshot(_name, counts, count, _sum.sum(), _max.get());
+	}
+
+	public static class Snapshot {
+		private final String _name;
+		private final long _counts[];
+		private final long _count;
+		private final long _sum;
+		private final long _max;
+
+		Snapshot(String name, long counts[], long count, long sum, long max) {
+			_name = name;
+			_counts = counts;
+			_count = count;
+			_sum = sum;
+			_max = max;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public long getCount() {
+			return _count;
+		}
+
+		/**
+		 * @return total nanoseconds
+		 */
+		public long getSum() {
+			return _sum;
+		}
+
+		public long getMax() {
+			return _max;
+		}
+
+		public double getMean() {
+			return _count == 0 ? 0 : _sum / (double) _count;
+		}
+
+		/**
+		 * @param percentile in [0, 100]
+		 * @return the highest value of the bucket holding the percentile (never above the maximum), 0 when empty
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if(_count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * _count));
+			long seen = 0;
+			for(int i=0; i<_counts.length; ++i) {
+				seen += _counts[i];
+				if(seen >= rank)
+					return Math.min(highestValue(i), _max);
+			}
+			return _max;
+		}
+	}
+
+	static int bucket(long value) {
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		int mantissa = (int) (value >>> shift);
+		return (shift + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+	}
+
+	static long highestValue(int bucket) {
+		if(bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,175 @@
+package trifonov.stanislav.textmining.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The process wide counters and per stage {@link LatencyHistogram latencies}, by name. Stages time themselves as
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * STAGE_LATENCY.recordSince(start);
+ * </pre>
+ * which costs a volatile read and nothing else while the metrics are {@link #setEnabled(boolean) disabled},
+ * the default. Counters and histograms are lock-free; snapshots are exported as JSON or in the Prometheus
+ * text format.
+ */
+public class Metrics {
+
+	private static final String PROMETHEUS_PREFIX = "pit_";
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<String, LongAdder>();
+	private static final ConcurrentMap<String, LatencyHistogram> LATENCIES = new ConcurrentHashMap<String, LatencyHistogram>();
+	private static volatile boolean _enabled = false;
+
+	private Metrics() {
+	}
+
+	public static void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * @return the time to pass to {@link LatencyHistogram#recordSince(long)}, 0 while disabled
+	 */
+	public static long start() {
+		return _enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Adds to a counter, only while enabled
+	 */
+	public static void count(LongAdder counter, long value) {
+		if(_enabled)
+			counter.add(value);
+	}
+
+	public static LongAdder counter(String name) {
+		return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+	}
+
+	public static LatencyHistogram latency(String name) {
+		return LATENCIES.computeIfAbsent(name, key -> new LatencyHistogram(key));
+	}
+
+	/**
+	 * Zeroes the counters and drops the recorded latencies
+	 */
+	public static void reset() {
+		for(LongAdder counter : COUNTERS.values())
+			counter.reset();
+		for(LatencyHistogram latency : LATENCIES.values())
+			latency.reset();
+	}
+
+	/**
+	 * <code>{"counters":{name:value,...},"latencies":{name:{"count":..,"sumNanos":..,"meanNanos":..,"maxNanos":..,
+	 * "p50":..,"p90":..,"p99":..,"p99.9":..},...}}</code>, names sorted
+	 */
+	public static void writeJson(Writer out) throws IOException {
+		out.write("{\"counters\":{");
+		boolean first = true;
+		for(Map.Entry<String, Long> counter : counters().entrySet()) {
+			if(!first)
+				out.write(',');
+			first = false;
+			out.write( "\"" + counter.getKey() + "\":" + counter.getValue() );
+		}
+		out.write("},\"latencies\":{");
+		first = true;
+		for(LatencyHistogram.Snapshot latency : latencies().values()) {
+			if(!first)
+				out.write(',');
+			first = false;
+			out.write( String.format(Locale.US, "\"%s\":{\"count\":%d,\"sumNanos\":%d,\"meanNanos\":%.1f,\"maxNanos\":%d",
+					latency.getName(), latency.getCount(), latency.getSum(), latency.getMean(), latency.getMax()) );
+			for(double percentile : PERCENTILES)
+				out.write( "," + "\"p" + percentileLabel(percentile) + "\":" + latency.getValueAtPercentile(percentile) );
+			out.write('}');
+		}
+		out.write("}}\n");
+	}
+
+	/**
+	 * Counters as <code>pit_&lt;name&gt;_total</code> and latencies as the summary <code>pit_stage_seconds</code>
+	 * labeled by stage
+	 */
+	public static void writePrometheus(Writer out) throws IOException {
+		for(Map.Entry<String, Long> counter : counters().entrySet()) {
+			String name = PROMETHEUS_PREFIX + sanitize(counter.getKey()) + "_total";
+			out.write("# TYPE " + name + " counter\n");
+			out.write(name + " " + counter.getValue() + "\n");
+		}
+
+		String name = PROMETHEUS_PREFIX + "stage_seconds";
+		out.write("# TYPE " + name + " summary\n");
+		for(LatencyHistogram.Snapshot latency : latencies().values()) {
+			String stage = "stage=\"" + latency.getName() + "\"";
+			for(double percentile : PERCENTILES)
+				out.write( String.format(Locale.US, "%s{%s,quantile=\"%s\"} %.9f%n",
+						name, stage, quantileLabel(percentile), latency.getValueAtPercentile(percentile) / 1e9) );
+			out.write( String.format(Locale.US, "%s_sum{%s} %.9f%n", name, stage, latency.getSum() / 1e9) );
+			out.write( String.format(Locale.US, "%s_count{%s} %d%n", name, stage, latency.getCount()) );
+		}
+	}
+
+	/**
+	 * Writes a snapshot to a file, as JSON if its name ends with <code>.json</code>, as Prometheus text otherwise
+	 */
+	public static void export(File file) throws IOException {
+		Writer out = null;
+		try {
+			out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+			if( file.getName().endsWith(".json") )
+				writeJson(out);
+			else
+				writePrometheus(out);
+		}
+		finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	private static Map<String, Long> counters() {
+		Map<String, Long> counters = new TreeMap<String, Long>();
+		for(Map.Entry<String, LongAdder> counter : COUNTERS.entrySet())
+			counters.put(counter.getKey(), counter.getValue().sum());
+		return counters;
+	}
+
+	private static Map<String, LatencyHistogram.Snapshot> latencies() {
+		Map<String, LatencyHistogram.Snapshot> latencies = new TreeMap<String, LatencyHistogram.Snapshot>();
+		for(LatencyHistogram latency : LATENCIES.values())
+			latencies.put(latency.getName(), latency.snapshot());
+		return latencies;
+	}
+
+	private static String percentileLabel(double percentile) {
+		return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+	}
+
+	private static String quantileLabel(double percentile) {
+		return new BigDecimal( String.valueOf(percentile) ).movePointLeft(2).stripTrailingZeros().toPlainString();
+	}
+
+	private static String sanitize(String name) {
+		return name.replaceAll("[^a-zA-Z0-9_]", "_");
+	}
+}
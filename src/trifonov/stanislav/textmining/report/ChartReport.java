@@ -0,0 +1,102 @@
+package trifonov.stanislav.textmining.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.xeiam.xchart.BitmapEncoder;
+import com.xeiam.xchart.BitmapEncoder.BitmapFormat;
+import com.xeiam.xchart.Chart;
+import com.xeiam.xchart.ChartBuilder;
+import com.xeiam.xchart.Histogram;
+import com.xeiam.xchart.StyleManager.ChartType;
+import com.xeiam.xchart.StyleManager.LegendPosition;
+
+/**
+ * Renders every histogram as a bar chart into <code>&lt;name&gt;.png</code> of a directory, the series of a
+ * {@link #binnedHistogram(String, double, double, String[], int[][]) binned} one overlapping.
+ * Messages and metrics are dropped.
+ */
+public class ChartReport implements ReportConsumer {
+
+	private final File _dir;
+	private final int _bins;
+
+	public ChartReport(File dir, int bins) {
+		_dir = dir;
+		_bins = bins;
+	}
+
+	@Override
+	public void message(String text) {
+	}
+
+	@Override
+	public void metric(String name, double value) {
+	}
+
+	@Override
+	public void histogram(String name, double values[], int count) throws IOException {
+		if(count == 0)
+			return;
+
+		List<Double> data = new ArrayList<Double>(count);
+		for(int i=0; i<count; ++i)
+			data.add(values[i]);
+		Histogram histogram = new Histogram(data, _bins);
+
+		Chart chart = new ChartBuilder().chartType(ChartType.Bar)
+				.width(800)
+				.height(600)
+				.title(name)
+				.xAxisTitle("Value")
+				.yAxisTitle("Count")
+				.build();
+		chart.addSeries(name, histogram.getxAxisData(), histogram.getyAxisData());
+		chart.getStyleManager().setLegendPosition(LegendPosition.InsideNE);
+		chart.getStyleManager().setBarsOverlapped(true);
+
+		_dir.mkdirs();
+		BitmapEncoder.saveBitmap(chart,
+				new File(_dir, name).getAbsolutePath(),
+				BitmapFormat.PNG);
+	}
+
+	@Override
+	public void binnedHistogram(String name, double min, double max, String seriesNames[], int counts[][]) throws IOException {
+		if(seriesNames.length == 0)
+			return;
+
+		int binsCount = counts[0].length;
+		double binSize = (max - min) / binsCount;
+		List<Double> xAxis = new ArrayList<Double>(binsCount);
+		for(int bin=0; bin<binsCount; ++bin)
+			xAxis.add( min + bin * binSize + binSize / 2 );
+
+		Chart chart = new ChartBuilder().chartType(ChartType.Bar)
+				.width(800)
+				.height(600)
+				.title(name)
+				.xAxisTitle("Value")
+				.yAxisTitle("Count")
+				.build();
+		for(int series=0; series<seriesNames.length; ++series) {
+			List<Integer> yAxis = new ArrayList<Integer>(binsCount);
+			for(int count : counts[series])
+				yAxis.add(count);
+			chart.addSeries(seriesNames[series], xAxis, yAxis);
+		}
+		chart.getStyleManager().setLegendPosition(LegendPosition.InsideNE);
+		chart.getStyleManager().setBarsOverlapped(true);
+
+		_dir.mkdirs();
+		BitmapEncoder.saveBitmap(chart,
+				new File(_dir, name).getAbsolutePath(),
+				BitmapFormat.PNG);
+	}
+
+	@Override
+	public void close() {
+	}
+}
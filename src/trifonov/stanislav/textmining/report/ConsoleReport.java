@@ -0,0 +1,68 @@
+package trifonov.stanislav.textmining.report;
+
+import java.io.PrintStream;
+
+/**
+ * Prints the messages to the standard output; metrics and histograms (as count, min, mean and max)
+ * only when asked to, they are usually left to a {@link CsvReport}.
+ */
+public class ConsoleReport implements ReportConsumer {
+
+	private final PrintStream _out = System.out;
+	private final boolean _printMetrics;
+
+	public ConsoleReport() {
+		this(false);
+	}
+
+	public ConsoleReport(boolean printMetrics) {
+		_printMetrics = printMetrics;
+	}
+
+	@Override
+	public void message(String text) {
+		_out.println(text);
+	}
+
+	@Override
+	public void metric(String name, double value) {
+		if(_printMetrics)
+			_out.println(name + ": " + value);
+	}
+
+	@Override
+	public void histogram(String name, double values[], int count) {
+		if(!_printMetrics)
+			return;
+
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		double sum = 0;
+		for(int i=0; i<count; ++i) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+			sum += values[i];
+		}
+		_out.println( String.format("%s: count %d, min %.4f, mean %.4f, max %.4f", name, count, min, sum / count, max) );
+	}
+
+	@Override
+	public void binnedHistogram(String name, double min, double max, String seriesNames[], int counts[][]) {
+		if(!_printMetrics)
+			return;
+
+		StringBuilder line = new StringBuilder(name).append( String.format(": min %.4f, max %.4f", min, max) );
+		for(int series=0; series<seriesNames.length; ++series) {
+			int count = 0;
+			for(int binCount : counts[series])
+				count += binCount;
+			line.append(", ").append(seriesNames[series]).append(' ').append(count);
+		}
+		_out.println(line);
+	}
+
+	@Override
+	public void close() {
+		_out.flush();
+	}
+}
@@ -0,0 +1,108 @@
+package trifonov.stanislav.textmining.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes the metrics as <code>time,name,value</code> lines of <code>metrics.csv</code> and every histogram
+ * as <code>bin start,bin end,count</code> lines of <code>&lt;name&gt;.csv</code> (a count per series for
+ * {@link #binnedHistogram(String, double, double, String[], int[][]) binned} ones), in a directory.
+ * Messages are dropped.
+ */
+public class CsvReport implements ReportConsumer {
+
+	private final File _dir;
+	private final int _bins;
+	private Writer _metrics = null;
+
+	public CsvReport(File dir, int bins) {
+		_dir = dir;
+		_bins = bins;
+	}
+
+	@Override
+	public void message(String text) {
+	}
+
+	@Override
+	public void metric(String name, double value) throws IOException {
+		if(_metrics == null) {
+			_dir.mkdirs();
+			_metrics = new BufferedWriter( new OutputStreamWriter(
+					new FileOutputStream(new File(_dir, "metrics.csv"), true), StandardCharsets.UTF_8) );
+		}
+		_metrics.write(System.currentTimeMillis() + "," + name + "," + value + "\n");
+	}
+
+	@Override
+	public void histogram(String name, double values[], int count) throws IOException {
+		if(count == 0)
+			return;
+
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(int i=0; i<count; ++i) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		double binSize = (max - min) / _bins;
+		int counts[] = new int[_bins];
+		for(int i=0; i<count; ++i)
+			counts[ binSize > 0 ? Math.min((int) ((values[i] - min) / binSize), _bins-1) : 0 ]++;
+
+		_dir.mkdirs();
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter( new OutputStreamWriter(
+					new FileOutputStream(new File(_dir, name + ".csv")), StandardCharsets.UTF_8) );
+			for(int bin=0; bin<_bins; ++bin)
+				writer.write( String.format(Locale.US, "%.6f,%.6f,%d%n",
+						min + bin * binSize, min + (bin+1) * binSize, counts[bin]) );
+		}
+		finally {
+			if(writer != null)
+				writer.close();
+		}
+	}
+
+	@Override
+	public void binnedHistogram(String name, double min, double max, String seriesNames[], int counts[][]) throws IOException {
+		if(seriesNames.length == 0)
+			return;
+
+		int binsCount = counts[0].length;
+		double binSize = (max - min) / binsCount;
+		_dir.mkdirs();
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter( new OutputStreamWriter(
+					new FileOutputStream(new File(_dir, name + ".csv")), StandardCharsets.UTF_8) );
+			writer.write("bin start,bin end");
+			for(String seriesName : seriesNames)
+				writer.write("," + seriesName);
+			writer.write("\n");
+			for(int bin=0; bin<binsCount; ++bin) {
+				writer.write( String.format(Locale.US, "%.6f,%.6f", min + bin * binSize, min + (bin+1) * binSize) );
+				for(int series=0; series<seriesNames.length; ++series)
+					writer.write("," + counts[series][bin]);
+				writer.write("\n");
+			}
+		}
+		finally {
+			if(writer != null)
+				writer.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(_metrics != null)
+			_metrics.close();
+	}
+}
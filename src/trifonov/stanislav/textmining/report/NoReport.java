@@ -0,0 +1,27 @@
+package trifonov.stanislav.textmining.report;
+
+/**
+ * Drops all events; a {@link ReportSink} of only these starts no threads and does no work per event
+ */
+public class NoReport implements ReportConsumer {
+
+	@Override
+	public void message(String text) {
+	}
+
+	@Override
+	public void metric(String name, double value) {
+	}
+
+	@Override
+	public void histogram(String name, double values[], int count) {
+	}
+
+	@Override
+	public void binnedHistogram(String name, double min, double max, String seriesNames[], int counts[][]) {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,31 @@
+package trifonov.stanislav.textmining.report;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the events of a {@link ReportSink}. A consumer is called from a single thread of the sink,
+ * one event after another in the order they were reported, so it needs no synchronization of its own.
+ */
+public interface ReportConsumer extends Closeable {
+
+	/**
+	 * A progress or result line meant for people
+	 */
+	void message(String text) throws IOException;
+
+	void metric(String name, double value) throws IOException;
+
+	/**
+	 * @param values the values to bin, owned by the consumer call only for its duration
+	 * @param count number of values, from the start of the array
+	 */
+	void histogram(String name, double values[], int count) throws IOException;
+
+	/**
+	 * Already binned counts of several series over the same equal bins from <code>min</code> to <code>max</code>,
+	 * e.g. of a feature's values for paraphrases and for non paraphrases
+	 * @param counts the counts of every series, one per bin
+	 */
+	void binnedHistogram(String name, double min, double max, String seriesNames[], int counts[][]) throws IOException;
+}
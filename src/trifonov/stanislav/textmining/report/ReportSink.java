@@ -0,0 +1,139 @@
+package trifonov.stanislav.textmining.report;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes the messages, metrics and histograms of a run and hands them over to its consumers, each on a
+ * thread of its own: reporting never waits for a consumer, so e.g. rendering a chart is not part of the
+ * latency of what is being measured. Events reach a consumer in the order they were reported.
+ *
+ * {@link NoReport} consumers are dropped, a sink without consumers does nothing at all
+ * (check {@link #isActive()} before collecting data only for a report).
+ */
+public class ReportSink implements Closeable {
+
+	private static class Dispatcher {
+		final ReportConsumer _consumer;
+		final ExecutorService _executor;
+
+		Dispatcher(ReportConsumer consumer, int index) {
+			_consumer = consumer;
+			_executor = Executors.newSingleThreadExecutor( runnable -> {
+				Thread thread = new Thread(runnable, "report-" + index + "-" + consumer.getClass().getSimpleName());
+				thread.setDaemon(true);
+				return thread;
+			} );
+		}
+	}
+
+	private interface Event {
+		void send(ReportConsumer consumer) throws IOException;
+	}
+
+	private final List<Dispatcher> _dispatchers;
+	private volatile IOException _error = null;
+	private boolean _closed = false;
+
+	public ReportSink(ReportConsumer... consumers) {
+		_dispatchers = new ArrayList<Dispatcher>(consumers.length);
+		for(ReportConsumer consumer : consumers)
+			if( !(consumer instanceof NoReport) )
+				_dispatchers.add( new Dispatcher(consumer, _dispatchers.size()) );
+	}
+
+	/**
+	 * @return false when the reported events go nowhere
+	 */
+	public boolean isActive() {
+		return !_dispatchers.isEmpty();
+	}
+
+	public void message(final String text) {
+		dispatch( consumer -> consumer.message(text) );
+	}
+
+	public void metric(final String name, final double value) {
+		dispatch( consumer -> consumer.metric(name, value) );
+	}
+
+	/**
+	 * @param values taken over by the sink, must not be modified after the call
+	 */
+	public void histogram(final String name, final double values[], final int count) {
+		dispatch( consumer -> consumer.histogram(name, values, count) );
+	}
+
+	/**
+	 * @param counts taken over by the sink, must not be modified after the call
+	 */
+	public void binnedHistogram(final String name, final double min, final double max,
+			final String seriesNames[], final int counts[][]) {
+		dispatch( consumer -> consumer.binnedHistogram(name, min, max, seriesNames, counts) );
+	}
+
+	/**
+	 * Waits for the consumers to take all reported events and closes them
+	 * @throws IOException the first error of a consumer, if any
+	 */
+	@Override
+	public void close() throws IOException {
+		if(_closed)
+			return;
+		_closed = true;
+
+		for(Dispatcher dispatcher : _dispatchers)
+			dispatcher._executor.shutdown();
+		try {
+			for(Dispatcher dispatcher : _dispatchers)
+				while( !dispatcher._executor.awaitTermination(1, TimeUnit.SECONDS) )
+					;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the report");
+		}
+		finally {
+			for(Dispatcher dispatcher : _dispatchers)
+				try {
+					dispatcher._consumer.close();
+				}
+				catch (IOException e) {
+					fail(e);
+				}
+		}
+
+		if(_error != null)
+			throw new IOException("Reporting failed", _error);
+	}
+
+	private void dispatch(final Event event) {
+		for(final Dispatcher dispatcher : _dispatchers) {
+			try {
+				dispatcher._executor.execute( () -> {
+					try {
+						event.send(dispatcher._consumer);
+					}
+					catch (IOException | RuntimeException e) {
+						fail(e);
+					}
+				} );
+			}
+			catch (RejectedExecutionException e) {
+				throw new IllegalStateException("The report is closed", e);
+			}
+		}
+	}
+
+	private synchronized void fail(Exception e) {
+		if(_error == null)
+			_error = e instanceof IOException ? (IOException) e : new IOException(e);
+	}
+}
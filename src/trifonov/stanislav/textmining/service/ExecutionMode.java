@@ -0,0 +1,43 @@
+package trifonov.stanislav.textmining.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How scoring requests are run.
+ * <ul>
+ * <li>{@link #PLATFORM} - a fixed pool of platform threads with a bounded queue</li>
+ * <li>{@link #VIRTUAL} - a new virtual thread per request, so requests blocked on I/O or page faults
+ * don't hold a platform thread; the CPU heavy features extraction is bounded by {@link PairScorer}'s permits.
+ * Needs a Java 21+ runtime; the executor is looked up reflectively so the project still builds for Java 8.</li>
+ * </ul>
+ */
+public enum ExecutionMode {
+	PLATFORM,
+	VIRTUAL;
+
+	public ExecutorService newExecutor(int workersCount, int queueCapacity) {
+		switch (this) {
+		case VIRTUAL:
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			}
+			catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(
+						"Virtual threads need Java 21 or newer, running on " + System.getProperty("java.version"), e);
+			}
+
+		default:
+			return new ThreadPoolExecutor(
+					workersCount, workersCount,
+					0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(queueCapacity),
+					new ThreadPoolExecutor.CallerRunsPolicy() );
+		}
+	}
+}
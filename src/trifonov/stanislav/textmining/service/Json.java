@@ -0,0 +1,179 @@
+package trifonov.stanislav.textmining.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the scoring requests: objects become {@link Map}s, arrays {@link List}s,
+ * numbers {@link Double}s, plus {@link String}, {@link Boolean} and null.
+ */
+class Json {
+
+	private final String _text;
+	private int _position = 0;
+
+	private Json(String text) {
+		_text = text;
+	}
+
+	public static Object parse(String text) {
+		Json json = new Json(text);
+		Object value = json.readValue();
+		json.skipWhitespace();
+		if(json._position != text.length())
+			throw json.error("Unexpected trailing content");
+		return value;
+	}
+
+	public static String quote(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for(int i=0; i<value.length(); ++i) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if(c < 0x20)
+					sb.append( String.format("\\u%04x", (int)c) );
+				else
+					sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private Object readValue() {
+		skipWhitespace();
+		if(_position >= _text.length())
+			throw error("Unexpected end of input");
+
+		char c = _text.charAt(_position);
+		switch (c) {
+		case '{': return readObject();
+		case '[': return readArray();
+		case '"': return readString();
+		case 't': expect("true"); return Boolean.TRUE;
+		case 'f': expect("false"); return Boolean.FALSE;
+		case 'n': expect("null"); return null;
+		default: return readNumber();
+		}
+	}
+
+	private Map<String, Object> readObject() {
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		++_position;
+		skipWhitespace();
+		if(peek() == '}') {
+			++_position;
+			return object;
+		}
+
+		while(true) {
+			skipWhitespace();
+			if(peek() != '"')
+				throw error("Expected a key");
+			String key = readString();
+			skipWhitespace();
+			if(peek() != ':')
+				throw error("Expected ':'");
+			++_position;
+			object.put(key, readValue());
+			skipWhitespace();
+			char c = peek();
+			++_position;
+			if(c == '}')
+				return object;
+			if(c != ',')
+				throw error("Expected ',' or '}'");
+		}
+	}
+
+	private List<Object> readArray() {
+		List<Object> array = new ArrayList<Object>();
+		++_position;
+		skipWhitespace();
+		if(peek() == ']') {
+			++_position;
+			return array;
+		}
+
+		while(true) {
+			array.add(readValue());
+			skipWhitespace();
+			char c = peek();
+			++_position;
+			if(c == ']')
+				return array;
+			if(c != ',')
+				throw error("Expected ',' or ']'");
+		}
+	}
+
+	private String readString() {
+		StringBuilder sb = new StringBuilder();
+		++_position;
+		while(true) {
+			char c = peek();
+			++_position;
+			if(c == '"')
+				return sb.toString();
+			if(c != '\\') {
+				sb.append(c);
+				continue;
+			}
+
+			char escaped = peek();
+			++_position;
+			switch (escaped) {
+			case 'n': sb.append('\n'); break;
+			case 'r': sb.append('\r'); break;
+			case 't': sb.append('\t'); break;
+			case 'b': sb.append('\b'); break;
+			case 'f': sb.append('\f'); break;
+			case 'u':
+				if(_position + 4 > _text.length())
+					throw error("Bad unicode escape");
+				sb.append( (char) Integer.parseInt(_text.substring(_position, _position+4), 16) );
+				_position += 4;
+				break;
+			default: sb.append(escaped);
+			}
+		}
+	}
+
+	private Double readNumber() {
+		int start = _position;
+		while(_position < _text.length() && "+-0123456789.eE".indexOf(_text.charAt(_position)) >= 0)
+			++_position;
+		if(start == _position)
+			throw error("Unexpected character");
+		return Double.valueOf( _text.substring(start, _position) );
+	}
+
+	private void expect(String word) {
+		if( !_text.startsWith(word, _position) )
+			throw error("Expected " + word);
+		_position += word.length();
+	}
+
+	private char peek() {
+		if(_position >= _text.length())
+			throw error("Unexpected end of input");
+		return _text.charAt(_position);
+	}
+
+	private void skipWhitespace() {
+		while(_position < _text.length() && Character.isWhitespace(_text.charAt(_position)))
+			++_position;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + _position);
+	}
+}
@@ -0,0 +1,153 @@
+package trifonov.stanislav.textmining.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects single pairs submitted by many callers into batches of up to <code>maxBatchSize</code> pairs,
+ * waiting at most <code>maxDelayMicros</code> after the first pair of a batch arrives.
+ * A batch scores every distinct pair once (with sentences taken from the scorer's cache) through
+ * {@link PairScorer#score(List)} and completes the callers' futures.
+ *
+ * A larger batch size or delay trades latency for throughput.
+ *
+ * Once closed, the pairs not yet handed to the scoring threads fail with an {@link IllegalStateException}.
+ */
+public class MicroBatcher implements AutoCloseable {
+
+	private static class PendingPair {
+		final String _s1Tags;
+		final String _s2Tags;
+		final CompletableFuture<Double> _score = new CompletableFuture<Double>();
+
+		PendingPair(String s1Tags, String s2Tags) {
+			_s1Tags = s1Tags;
+			_s2Tags = s2Tags;
+		}
+	}
+
+	private final PairScorer _scorer;
+	private final int _maxBatchSize;
+	private final long _maxDelayNanos;
+	private final ExecutorService _executor;
+	private final BlockingQueue<PendingPair> _pending = new LinkedBlockingQueue<PendingPair>();
+	private final Thread _collector;
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param threadsCount how many collected batches are scored at the same time, on threads of the batcher
+	 * which stop when it's {@link #close() closed}
+	 */
+	public MicroBatcher(PairScorer scorer, int maxBatchSize, long maxDelayMicros, int threadsCount) {
+		_scorer = scorer;
+		_maxBatchSize = maxBatchSize;
+		_maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+		_executor = Executors.newFixedThreadPool(threadsCount, runnable -> {
+			Thread thread = new Thread(runnable, "micro-batch-scorer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		_collector = new Thread( () -> collect(), "micro-batcher" );
+		_collector.setDaemon(true);
+		_collector.start();
+	}
+
+	public CompletableFuture<Double> submit(String s1Tags, String s2Tags) {
+		PendingPair pair = new PendingPair(s1Tags, s2Tags);
+		_pending.add(pair);
+		if(_closed && _pending.remove(pair))
+			pair._score.completeExceptionally( new IllegalStateException("Micro batcher is closed") );
+		return pair._score;
+	}
+
+	/**
+	 * Stops collecting; the batches already being scored still complete
+	 */
+	@Override
+	public void close() {
+		_closed = true;
+		_collector.interrupt();
+		_executor.shutdown();
+	}
+
+	private void collect() {
+		List<PendingPair> batch = null;
+		try {
+			while( !_closed ) {
+				batch = new ArrayList<PendingPair>(_maxBatchSize);
+				batch.add( _pending.take() );
+
+				long deadline = System.nanoTime() + _maxDelayNanos;
+				while(batch.size() < _maxBatchSize) {
+					if( _pending.drainTo(batch, _maxBatchSize - batch.size()) > 0 )
+						continue;
+
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0)
+						break;
+					PendingPair pair = _pending.poll(remaining, TimeUnit.NANOSECONDS);
+					if(pair == null)
+						break;
+					batch.add(pair);
+				}
+
+				final List<PendingPair> collected = batch;
+				batch = null;
+				try {
+					_executor.execute( () -> score(collected) );
+				}
+				catch (RejectedExecutionException e) {
+					fail(collected, new IllegalStateException("Micro batcher is closed", e));
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			// closed
+		}
+
+		List<PendingPair> remaining = batch != null ? batch : new ArrayList<PendingPair>();
+		_pending.drainTo(remaining);
+		fail(remaining, new IllegalStateException("Micro batcher is closed"));
+	}
+
+	private static void fail(List<PendingPair> pairs, Throwable cause) {
+		for(PendingPair pair : pairs)
+			pair._score.completeExceptionally(cause);
+	}
+
+	private void score(List<PendingPair> batch) {
+		Map<String, Integer> pairIndexes = new HashMap<String, Integer>();
+		List<String[]> distinctPairs = new ArrayList<String[]>(batch.size());
+		int[] indexes = new int[batch.size()];
+
+		for(int i=0; i<batch.size(); ++i) {
+			PendingPair pair = batch.get(i);
+			String key = pair._s1Tags + '\t' + pair._s2Tags;
+			Integer index = pairIndexes.get(key);
+			if(index == null) {
+				index = distinctPairs.size();
+				pairIndexes.put(key, index);
+				distinctPairs.add( new String[] { pair._s1Tags, pair._s2Tags } );
+			}
+			indexes[i] = index;
+		}
+
+		try {
+			double[] scores = _scorer.score(distinctPairs);
+			for(int i=0; i<batch.size(); ++i)
+				batch.get(i)._score.complete( scores[indexes[i]] );
+		}
+		catch (Exception e) {
+			fail(batch, e);
+		}
+	}
+}
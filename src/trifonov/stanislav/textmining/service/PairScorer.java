@@ -0,0 +1,248 @@
+package trifonov.stanislav.textmining.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import trifonov.stanislav.ml.IMLModel;
+import trifonov.stanislav.textmining.index.CandidateGenerator;
+import trifonov.stanislav.textmining.PIT2015;
+import trifonov.stanislav.textmining.feature.Feature;
+import trifonov.stanislav.textmining.feature.FeaturesExtractor;
+import trifonov.stanislav.textmining.feature.OovStrategy;
+import trifonov.stanislav.textmining.feature.Sentence;
+import trifonov.stanislav.textmining.feature.SentenceCache;
+import trifonov.stanislav.textmining.metrics.LatencyHistogram;
+import trifonov.stanislav.textmining.metrics.Metrics;
+
+/**
+ * Scores sentence pairs (in the tagged format of {@link PIT2015#COLUMN_INDEX_SENT1TAG}) with an already
+ * trained model. Safe to use from many threads.
+ *
+ * At most <code>extractionPermits</code> threads extract features at the same time, each with a
+ * {@link FeaturesExtractor} taken from a shared pool, so any number of (virtual) threads may call in
+ * while the CPU heavy stage stays bounded.
+ */
+public class PairScorer {
+
+	private static final LatencyHistogram ESTIMATE_LATENCY = Metrics.latency("estimate");
+	private static final LatencyHistogram FLOAT_ESTIMATE_LATENCY = Metrics.latency("estimate.float32");
+
+	private final IMLModel _model;
+	private final float _labelBorder;
+	private final Map<String, float[]> _word2vecs;
+	private final Semaphore _extractionPermits;
+	private final SentenceCache _sentences;
+	private final Queue<FeaturesExtractor> _featuresExtractors = new ConcurrentLinkedQueue<FeaturesExtractor>();
+	private volatile OovStrategy _oovStrategy = FeaturesExtractor.DEFAULT_OOV_STRATEGY;
+	private volatile boolean _floatPrecision = false;
+
+	public PairScorer(IMLModel model, Map<String, float[]> word2vecs, float labelBorder,
+			int extractionPermits, int sentenceCacheSize) {
+		_model = model;
+		_word2vecs = word2vecs;
+		// the features don't use the sentences' embeddings
+		_sentences = new SentenceCache(null, sentenceCacheSize);
+		_labelBorder = labelBorder;
+		_extractionPermits = new Semaphore(extractionPermits);
+	}
+
+	/**
+	 * The vectors of the words that aren't in the word2vec model; the one the model was trained with.
+	 * Set before scoring.
+	 */
+	public void setOovStrategy(OovStrategy oovStrategy) {
+		_oovStrategy = oovStrategy;
+		_featuresExtractors.clear();
+	}
+
+	/**
+	 * Score with single precision features and model parameters, as {@link PIT2015#setFloatPrecision(boolean)}
+	 */
+	public void setFloatPrecision(boolean floatPrecision) {
+		_floatPrecision = floatPrecision;
+	}
+
+	public float getLabelBorder() {
+		return _labelBorder;
+	}
+
+	public boolean isParaphrase(double score) {
+		return score >= _labelBorder;
+	}
+
+	/**
+	 * Writes the features of the pair at <code>offset</code> of a row-major block
+	 */
+	public void extractFeatures(String s1Tags, String s2Tags, double[] rows, int offset) throws IOException {
+		extractFeatures(_sentences.get(s1Tags), _sentences.get(s2Tags), rows, offset);
+	}
+	
+	public void extractFeatures(Sentence sentence1, Sentence sentence2, double[] rows, int offset) throws IOException {
+		try {
+			_extractionPermits.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to extract features");
+		}
+
+		FeaturesExtractor featuresExtractor = _featuresExtractors.poll();
+		try {
+			if(featuresExtractor == null) {
+				featuresExtractor = new FeaturesExtractor(_word2vecs);
+				featuresExtractor.setOovStrategy(_oovStrategy);
+			}
+
+			featuresExtractor.init(sentence1, sentence2);
+			List<Feature> features = featuresExtractor.getFeatures();
+			for(int i=0; i<features.size(); ++i)
+				rows[offset+i] = features.get(i)._featureValue.doubleValue();
+		}
+		finally {
+			if(featuresExtractor != null)
+				_featuresExtractors.offer(featuresExtractor);
+			_extractionPermits.release();
+		}
+	}
+
+	/**
+	 * @param pairs the tags of the first and the second sentence of every pair.
+	 * Sentences are pre-processed once and kept in a bounded cache.
+	 * @return scores clipped to [0, 1]
+	 */
+	public double[] score(List<String[]> pairs) throws IOException {
+		List<Sentence[]> parsedPairs = new ArrayList<Sentence[]>(pairs.size());
+		for(String[] pair : pairs)
+			parsedPairs.add( new Sentence[] { _sentences.get(pair[0]), _sentences.get(pair[1]) } );
+
+		return scoreSentences(parsedPairs);
+	}
+
+	/**
+	 * Finds the best paraphrases of one sentence among many candidates. The query is pre-processed once;
+	 * the candidates are first ranked by the cheap 1-gram overlap (of words and of stems) with the query
+	 * and only the best <code>maxFullyScored</code> of them get all the features and the model's score.
+	 * @param k how many of the best candidates to return
+	 * @return at most k candidates, best first
+	 */
+	public List<RankedCandidate> rank(String queryTags, List<String> candidatesTags, int k, int maxFullyScored) throws IOException {
+		Sentence query = _sentences.get(queryTags);
+		long[] query1grams = query.getNGramHashes(1);
+		long[] queryStem1grams = query.getStemNGramHashes(1);
+
+		final Sentence[] candidates = new Sentence[candidatesTags.size()];
+		final double[] overlaps = new double[candidates.length];
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(
+				Math.max(1, maxFullyScored),
+				(a, b) -> Double.compare(overlaps[a], overlaps[b]) );
+
+		for(int i=0; i<candidates.length; ++i) {
+			candidates[i] = _sentences.get(candidatesTags.get(i));
+			overlaps[i] = FeaturesExtractor.f1gramOverlap(query1grams, candidates[i].getNGramHashes(1))
+					+ FeaturesExtractor.f1gramOverlap(queryStem1grams, candidates[i].getStemNGramHashes(1));
+
+			if(best.size() < maxFullyScored)
+				best.add(i);
+			else if( !best.isEmpty() && overlaps[i] > overlaps[best.peek()] ) {
+				best.poll();
+				best.add(i);
+			}
+		}
+
+		List<Integer> survivors = new ArrayList<Integer>(best);
+		List<Sentence[]> pairs = new ArrayList<Sentence[]>(survivors.size());
+		for(int candidate : survivors)
+			pairs.add( new Sentence[] { query, candidates[candidate] } );
+		final double[] scores = scoreSentences(pairs);
+
+		List<RankedCandidate> ranked = new ArrayList<RankedCandidate>(survivors.size());
+		for(int i=0; i<survivors.size(); ++i)
+			ranked.add( new RankedCandidate(survivors.get(i), candidatesTags.get(survivors.get(i)), scores[i]) );
+		// NaN scores (e.g. of one-word tweets) go last
+		Collections.sort(ranked, (a, b) -> Double.compare(
+				Double.isNaN(b.getScore()) ? Double.NEGATIVE_INFINITY : b.getScore(),
+				Double.isNaN(a.getScore()) ? Double.NEGATIVE_INFINITY : a.getScore() ));
+
+		return ranked.size() > k ? new ArrayList<RankedCandidate>(ranked.subList(0, k)) : ranked;
+	}
+
+	/**
+	 * Finds the paraphrases among many sentences, e.g. the near duplicates of a topic, fully scoring only
+	 * the pairs the generator picks instead of all N*(N-1)/2 of them
+	 * @return the candidate pairs labeled as paraphrases, best first
+	 */
+	public List<ScoredPair> findParaphrases(List<String> sentencesTags, CandidateGenerator generator) throws IOException {
+		List<Sentence> sentences = new ArrayList<Sentence>(sentencesTags.size());
+		for(String tags : sentencesTags)
+			sentences.add( _sentences.get(tags) );
+
+		List<int[]> candidates = generator.candidatePairs(sentences);
+		double[] scores = scoreCandidates(sentences, candidates);
+
+		List<ScoredPair> paraphrases = new ArrayList<ScoredPair>();
+		for(int i=0; i<candidates.size(); ++i)
+			if( isParaphrase(scores[i]) )
+				paraphrases.add( new ScoredPair(candidates.get(i)[0], candidates.get(i)[1], scores[i]) );
+		Collections.sort(paraphrases, (a, b) -> Double.compare(b.getScore(), a.getScore()));
+		return paraphrases;
+	}
+
+	/**
+	 * Scores only the candidate pairs of a set of sentences, e.g. from a {@link CandidateGenerator}
+	 * @return scores clipped to [0, 1], in the order of <code>candidates</code>
+	 */
+	public double[] scoreCandidates(List<Sentence> sentences, List<int[]> candidates) throws IOException {
+		List<Sentence[]> pairs = new ArrayList<Sentence[]>(candidates.size());
+		for(int[] candidate : candidates)
+			pairs.add( new Sentence[] { sentences.get(candidate[0]), sentences.get(candidate[1]) } );
+
+		return scoreSentences(pairs);
+	}
+
+	public Map<String, float[]> getWord2Vecs() {
+		return _word2vecs;
+	}
+
+	public SentenceCache getSentenceCache() {
+		return _sentences;
+	}
+
+	/**
+	 * @return scores clipped to [0, 1]
+	 */
+	public double[] scoreSentences(List<Sentence[]> pairs) throws IOException {
+		final int featuresCount = FeaturesExtractor.FEATURE_NAMES.size();
+		double[] rows = new double[pairs.size() * featuresCount];
+		for(int i=0; i<pairs.size(); ++i)
+			extractFeatures(pairs.get(i)[0], pairs.get(i)[1], rows, i*featuresCount);
+
+		double[] scores = new double[pairs.size()];
+		long start = Metrics.start();
+		if(_floatPrecision) {
+			float[] floatRows = new float[rows.length];
+			for(int i=0; i<rows.length; ++i)
+				floatRows[i] = (float) rows[i];
+			float[] floatScores = new float[scores.length];
+			_model.estimate(floatRows, featuresCount, pairs.size(), floatScores);
+			FLOAT_ESTIMATE_LATENCY.recordSince(start);
+			for(int i=0; i<scores.length; ++i)
+				scores[i] = floatScores[i];
+		}
+		else {
+			_model.estimate(rows, featuresCount, pairs.size(), scores);
+			ESTIMATE_LATENCY.recordSince(start);
+		}
+		for(int i=0; i<scores.length; ++i)
+			scores[i] = Math.max( Math.min(scores[i], 1.0), 0.0 );
+
+		return scores;
+	}
+}
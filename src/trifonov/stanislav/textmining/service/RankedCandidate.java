@@ -0,0 +1,32 @@
+package trifonov.stanislav.textmining.service;
+
+/**
+ * A candidate paraphrase of a query sentence, see {@link PairScorer#rank(String, java.util.List, int, int)}
+ */
+public class RankedCandidate {
+
+	private final int _index;
+	private final String _tags;
+	private final double _score;
+
+	public RankedCandidate(int index, String tags, double score) {
+		_index = index;
+		_tags = tags;
+		_score = score;
+	}
+
+	/**
+	 * @return position of the candidate in the list given for ranking
+	 */
+	public int getIndex() {
+		return _index;
+	}
+
+	public String getTags() {
+		return _tags;
+	}
+
+	public double getScore() {
+		return _score;
+	}
+}
@@ -0,0 +1,32 @@
+package trifonov.stanislav.textmining.service;
+
+/**
+ * A pair of sentences scored as paraphrases, see {@link PairScorer#findParaphrases(java.util.List, trifonov.stanislav.textmining.index.CandidateGenerator)}
+ */
+public class ScoredPair {
+
+	private final int _first;
+	private final int _second;
+	private final double _score;
+
+	public ScoredPair(int first, int second, double score) {
+		_first = first;
+		_second = second;
+		_score = score;
+	}
+
+	/**
+	 * @return position of the first sentence in the list given, smaller than {@link #getSecond()}
+	 */
+	public int getFirst() {
+		return _first;
+	}
+
+	public int getSecond() {
+		return _second;
+	}
+
+	public double getScore() {
+		return _score;
+	}
+}
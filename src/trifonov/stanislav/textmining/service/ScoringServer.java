@@ -0,0 +1,495 @@
+package trifonov.stanislav.textmining.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import trifonov.stanislav.ml.ModelStore;
+import trifonov.stanislav.textmining.PIT2015;
+import trifonov.stanislav.textmining.SubwordTable;
+import trifonov.stanislav.textmining.Word2VecStore;
+import trifonov.stanislav.textmining.feature.FeaturesExtractor;
+import trifonov.stanislav.textmining.feature.MemoizedOovStrategy;
+import trifonov.stanislav.textmining.feature.OovStrategy;
+import trifonov.stanislav.textmining.index.CandidateGenerator;
+import trifonov.stanislav.textmining.index.EmbeddingCandidates;
+import trifonov.stanislav.textmining.index.MinHashLsh;
+import trifonov.stanislav.textmining.metrics.Metrics;
+
+/**
+ * Long running paraphrase scoring over HTTP, with the model and the word vectors loaded once.
+ *
+ * <code>POST /score</code> accepts either JSON - <code>{"pairs":[{"s1":"...","s2":"..."}]}</code>,
+ * a single <code>{"s1":"...","s2":"..."}</code> or an array of such objects - or TSV lines with the tags
+ * of the two sentences (or whole PIT data lines). All pairs of a request are scored as one batch.
+ * The response has the same format as the request: JSON with a score and a label per pair,
+ * or TSV lines like the ones of {@link PIT2015#predictAndExport(File, File)}.
+ *
+ * Requests run as set by {@link ExecutionMode}: on a fixed pool of workers with a bounded queue
+ * (when the queue is full the accepting thread runs the request itself, which stops accepting new
+ * connections meanwhile) or each on its own virtual thread.
+ *
+ * With a {@link MicroBatcher} the pairs of concurrent requests are scored together instead of per request.
+ *
+ * <code>POST /rank</code> takes <code>{"query":"...","candidates":["...",...],"k":10}</code> and returns
+ * the k best paraphrases of the query among the candidates, see {@link PairScorer#rank(String, List, int, int)}.
+ *
+ * <code>POST /dedup</code> takes <code>{"sentences":["...",...],"candidates":"embedding"}</code>, e.g. the tweets
+ * of a topic, and returns the pairs among them labeled as paraphrases, best first. Only the candidate pairs are
+ * scored, see {@link PairScorer#findParaphrases(List, CandidateGenerator)}: the nearest neighbours of every
+ * sentence by <code>embedding</code>, or the pairs with a high n-gram overlap found by <code>minhash</code>.
+ *
+ * <code>GET /metrics</code> returns the {@link Metrics} in the Prometheus text format.
+ */
+public class ScoringServer {
+
+	private final PairScorer _scorer;
+	private final HttpServer _server;
+	private final ExecutorService _workers;
+	private final MicroBatcher _batcher;
+
+	/**
+	 * How many of the candidates with the best n-gram overlap are fully scored, per requested result
+	 */
+	private static final int RANK_CANDIDATES_PER_RESULT = 5;
+
+	/**
+	 * Nearest neighbours by embedding scored per sentence by /dedup, and the index lists scanned for them
+	 */
+	private static final int DEDUP_NEIGHBOURS = 10;
+	private static final int DEDUP_PROBES = 4;
+	/**
+	 * MinHash bands and rows of /dedup, picking pairs with an n-gram Jaccard similarity above ~0.55,
+	 * and the members of a bucket each one is paired with
+	 */
+	private static final int DEDUP_LSH_BANDS = 20;
+	private static final int DEDUP_LSH_ROWS = 5;
+	private static final int DEDUP_LSH_MAX_BUCKET_SIZE = 100;
+
+	/**
+	 * How long a request waits for the micro batches scoring its pairs
+	 */
+	private static final long BATCH_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * @param batcher scores the pairs of all requests in micro batches, null to score each request on its own;
+	 * closed when the server is {@link #stop() stopped}
+	 */
+	public ScoringServer(PairScorer scorer, MicroBatcher batcher, InetSocketAddress address,
+			ExecutionMode executionMode, int workersCount, int queueCapacity) throws IOException {
+		_scorer = scorer;
+		_batcher = batcher;
+		_workers = executionMode.newExecutor(workersCount, queueCapacity);
+		_server = HttpServer.create(address, queueCapacity);
+		_server.setExecutor(_workers);
+		_server.createContext("/score", new ScoreHandler());
+		_server.createContext("/rank", new RankHandler());
+		_server.createContext("/dedup", new DedupHandler());
+		_server.createContext("/health", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "text/plain", "ok\n");
+			}
+		});
+		_server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				StringWriter metrics = new StringWriter();
+				Metrics.writePrometheus(metrics);
+				respond(exchange, 200, "text/plain; version=0.0.4", metrics.toString());
+			}
+		});
+	}
+
+	public void start() {
+		_server.start();
+	}
+
+	/**
+	 * Stops the server, its workers and its micro batcher
+	 */
+	public void stop() {
+		_server.stop(0);
+		_workers.shutdown();
+		if(_batcher != null)
+			_batcher.close();
+	}
+
+	public InetSocketAddress getAddress() {
+		return _server.getAddress();
+	}
+
+	private class ScoreHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if( !"POST".equals(exchange.getRequestMethod()) ) {
+					respond(exchange, 405, "text/plain", "POST sentence pairs\n");
+					return;
+				}
+
+				String body = readBody(exchange.getRequestBody());
+				String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				String trimmed = body.trim();
+				boolean json = (contentType != null && contentType.contains("json"))
+						|| trimmed.startsWith("{") || trimmed.startsWith("[");
+
+				List<String[]> pairs = json ? parseJsonPairs(trimmed) : parseTsvPairs(body);
+				double[] scores = score(pairs);
+
+				if(json)
+					respond(exchange, 200, "application/json", formatJson(scores));
+				else
+					respond(exchange, 200, "text/tab-separated-values", formatTsv(scores));
+			}
+			catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				respond(exchange, 400, "text/plain", "Bad request: " + e.getMessage() + "\n");
+			}
+			catch (IOException | RuntimeException e) {
+				respond(exchange, 500, "text/plain", "Scoring failed: " + e + "\n");
+			}
+		}
+	}
+
+	private class RankHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if( !"POST".equals(exchange.getRequestMethod()) ) {
+					respond(exchange, 405, "text/plain", "POST a query and candidates\n");
+					return;
+				}
+
+				Object json = Json.parse( readBody(exchange.getRequestBody()).trim() );
+				if( !(json instanceof Map) )
+					throw new IllegalArgumentException("Expected an object with query and candidates");
+				Map<?, ?> request = (Map<?, ?>) json;
+				if( !(request.get("query") instanceof String) )
+					throw new IllegalArgumentException("query must be a string");
+				String query = (String) request.get("query");
+				List<String> candidates = new ArrayList<String>();
+				for(Object candidate : asList(request.get("candidates"))) {
+					if( !(candidate instanceof String) )
+						throw new IllegalArgumentException("candidates must be strings");
+					candidates.add( (String) candidate );
+				}
+				int k = request.get("k") instanceof Double ? ((Double) request.get("k")).intValue() : 10;
+				if(k < 1)
+					throw new IllegalArgumentException("k must be at least 1");
+
+				int maxFullyScored = (int) Math.min(candidates.size(), (long) k * RANK_CANDIDATES_PER_RESULT);
+				List<RankedCandidate> ranked = _scorer.rank(query, candidates, k, maxFullyScored);
+
+				StringBuilder sb = new StringBuilder(32 + 48*ranked.size());
+				sb.append("{\"results\":[");
+				for(int i=0; i<ranked.size(); ++i) {
+					RankedCandidate candidate = ranked.get(i);
+					if(i > 0)
+						sb.append(',');
+					sb.append("{\"index\":").append(candidate.getIndex())
+						.append(",\"score\":")
+						.append( Double.isNaN(candidate.getScore()) ? "null" : String.format(Locale.US, "%.4f", candidate.getScore()) )
+						.append(",\"label\":").append( _scorer.isParaphrase(candidate.getScore()) )
+						.append('}');
+				}
+				sb.append("]}\n");
+				respond(exchange, 200, "application/json", sb.toString());
+			}
+			catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				respond(exchange, 400, "text/plain", "Bad request: " + e.getMessage() + "\n");
+			}
+			catch (IOException | RuntimeException e) {
+				respond(exchange, 500, "text/plain", "Ranking failed: " + e + "\n");
+			}
+		}
+	}
+
+	private class DedupHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if( !"POST".equals(exchange.getRequestMethod()) ) {
+					respond(exchange, 405, "text/plain", "POST sentences\n");
+					return;
+				}
+
+				Object json = Json.parse( readBody(exchange.getRequestBody()).trim() );
+				if( !(json instanceof Map) )
+					throw new IllegalArgumentException("Expected an object with sentences");
+				Map<?, ?> request = (Map<?, ?>) json;
+				List<String> sentences = new ArrayList<String>();
+				for(Object sentence : asList( request.get("sentences") )) {
+					if( !(sentence instanceof String) )
+						throw new IllegalArgumentException("sentences must be strings");
+					sentences.add( (String) sentence );
+				}
+
+				CandidateGenerator generator;
+				Object candidates = request.containsKey("candidates") ? request.get("candidates") : "embedding";
+				if( "embedding".equals(candidates) )
+					generator = new EmbeddingCandidates(_scorer.getWord2Vecs(), DEDUP_NEIGHBOURS, DEDUP_PROBES, 1);
+				else if( "minhash".equals(candidates) )
+					generator = new MinHashLsh(DEDUP_LSH_BANDS, DEDUP_LSH_ROWS, DEDUP_LSH_MAX_BUCKET_SIZE, 1);
+				else
+					throw new IllegalArgumentException("candidates must be embedding or minhash");
+				List<ScoredPair> paraphrases = _scorer.findParaphrases(sentences, generator);
+
+				StringBuilder sb = new StringBuilder(32 + 48*paraphrases.size());
+				sb.append("{\"paraphrases\":[");
+				for(int i=0; i<paraphrases.size(); ++i) {
+					ScoredPair pair = paraphrases.get(i);
+					if(i > 0)
+						sb.append(',');
+					sb.append("{\"first\":").append(pair.getFirst())
+						.append(",\"second\":").append(pair.getSecond())
+						.append(",\"score\":").append( String.format(Locale.US, "%.4f", pair.getScore()) )
+						.append('}');
+				}
+				sb.append("]}\n");
+				respond(exchange, 200, "application/json", sb.toString());
+			}
+			catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				respond(exchange, 400, "text/plain", "Bad request: " + e.getMessage() + "\n");
+			}
+			catch (IOException | RuntimeException e) {
+				respond(exchange, 500, "text/plain", "Deduplication failed: " + e + "\n");
+			}
+		}
+	}
+
+	private double[] score(List<String[]> pairs) throws IOException {
+		if(_batcher == null)
+			return _scorer.score(pairs);
+
+		List<CompletableFuture<Double>> futures = new ArrayList<CompletableFuture<Double>>(pairs.size());
+		for(String[] pair : pairs)
+			futures.add( _batcher.submit(pair[0], pair[1]) );
+
+		double[] scores = new double[pairs.size()];
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_TIMEOUT_MILLIS);
+		try {
+			for(int i=0; i<scores.length; ++i)
+				scores[i] = futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the scores");
+		}
+		catch (TimeoutException e) {
+			throw new IOException("Scoring took more than " + BATCH_TIMEOUT_MILLIS + "ms");
+		}
+		catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		return scores;
+	}
+
+	static List<String[]> parseJsonPairs(String body) {
+		Object json = Json.parse(body);
+		List<?> items;
+		if(json instanceof Map && ((Map<?, ?>) json).containsKey("pairs"))
+			items = asList( ((Map<?, ?>) json).get("pairs") );
+		else if(json instanceof List)
+			items = (List<?>) json;
+		else {
+			List<Object> single = new ArrayList<Object>();
+			single.add(json);
+			items = single;
+		}
+
+		List<String[]> pairs = new ArrayList<String[]>(items.size());
+		for(Object item : items) {
+			if( !(item instanceof Map) )
+				throw new IllegalArgumentException("Every pair must be an object with s1 and s2");
+			Map<?, ?> pair = (Map<?, ?>) item;
+			Object s1 = pair.get("s1");
+			Object s2 = pair.get("s2");
+			if( !(s1 instanceof String) || !(s2 instanceof String) )
+				throw new IllegalArgumentException("Every pair must have s1 and s2 strings");
+			pairs.add( new String[] { (String) s1, (String) s2 } );
+		}
+		return pairs;
+	}
+
+	static List<String[]> parseTsvPairs(String body) {
+		List<String[]> pairs = new ArrayList<String[]>();
+		for(String line : body.split("\r?\n")) {
+			if( line.isEmpty() )
+				continue;
+
+			String[] columns = line.split("\t");
+			if(columns.length > PIT2015.COLUMN_INDEX_SENT2TAG)
+				pairs.add( new String[] { columns[PIT2015.COLUMN_INDEX_SENT1TAG], columns[PIT2015.COLUMN_INDEX_SENT2TAG] } );
+			else if(columns.length == 2)
+				pairs.add(columns);
+			else
+				throw new IllegalArgumentException("Expected the tags of two sentences per line: " + line);
+		}
+		return pairs;
+	}
+
+	private static List<?> asList(Object value) {
+		if( !(value instanceof List) )
+			throw new IllegalArgumentException("Expected an array");
+		return (List<?>) value;
+	}
+
+	private String formatJson(double[] scores) {
+		StringBuilder sb = new StringBuilder(32 + 40*scores.length);
+		sb.append("{\"results\":[");
+		for(int i=0; i<scores.length; ++i) {
+			if(i > 0)
+				sb.append(',');
+			sb.append("{\"score\":")
+				.append( Double.isNaN(scores[i]) ? "null" : String.format(Locale.US, "%.4f", scores[i]) )
+				.append(",\"label\":")
+				.append( _scorer.isParaphrase(scores[i]) )
+				.append('}');
+		}
+		return sb.append("]}\n").toString();
+	}
+
+	private String formatTsv(double[] scores) {
+		StringBuilder sb = new StringBuilder(16*scores.length);
+		for(double score : scores)
+			sb.append( _scorer.isParaphrase(score) )
+				.append('\t')
+				.append( String.format(Locale.US, "%.4f", score) )
+				.append('\n');
+		return sb.toString();
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while( (read=in.read(buffer)) > 0 )
+			body.write(buffer, 0, read);
+		in.close();
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Arguments: <code>--model file --word2vec file [--port 8080] [--workers N] [--queue N]
+	 * [--executor platform|virtual] [--extraction-permits N] [--batch-size N] [--batch-delay-us T]
+	 * [--sentence-cache N] [--metrics on|off] [--oov ngram|seeded|zero] [--subword-table file]
+	 * [--float on|off]</code>
+	 * <br>A {@link SubwordTable} gives the vectors of unknown words instead of the <code>--oov</code> strategy.
+	 * <br>A batch size above 1 enables micro batching.
+	 */
+	public static void main(String[] args) throws IOException {
+		String modelFile = null;
+		String word2vecFile = new File(PIT2015.DIRNAME_WORD2VEC_LOCATION, PIT2015.FILENAME_WORD2VEC_BIN).getPath();
+		int port = 8080;
+		int workersCount = Runtime.getRuntime().availableProcessors();
+		int queueCapacity = 1024;
+		ExecutionMode executionMode = ExecutionMode.PLATFORM;
+		int extractionPermits = Runtime.getRuntime().availableProcessors();
+		int batchSize = 1;
+		long batchDelayMicros = 500;
+		int sentenceCacheSize = 100000;
+		boolean metrics = true;
+		String oov = "ngram";
+		String subwordTableFile = null;
+		boolean floatPrecision = false;
+
+		for(int i=0; i+1<args.length; i+=2) {
+			if( "--model".equals(args[i]) )
+				modelFile = args[i+1];
+			else if( "--word2vec".equals(args[i]) )
+				word2vecFile = args[i+1];
+			else if( "--port".equals(args[i]) )
+				port = Integer.parseInt(args[i+1]);
+			else if( "--workers".equals(args[i]) )
+				workersCount = Integer.parseInt(args[i+1]);
+			else if( "--queue".equals(args[i]) )
+				queueCapacity = Integer.parseInt(args[i+1]);
+			else if( "--executor".equals(args[i]) )
+				executionMode = ExecutionMode.valueOf( args[i+1].toUpperCase(Locale.US) );
+			else if( "--extraction-permits".equals(args[i]) )
+				extractionPermits = Integer.parseInt(args[i+1]);
+			else if( "--batch-size".equals(args[i]) )
+				batchSize = Integer.parseInt(args[i+1]);
+			else if( "--batch-delay-us".equals(args[i]) )
+				batchDelayMicros = Long.parseLong(args[i+1]);
+			else if( "--sentence-cache".equals(args[i]) )
+				sentenceCacheSize = Integer.parseInt(args[i+1]);
+			else if( "--metrics".equals(args[i]) )
+				metrics = "on".equals(args[i+1]);
+			else if( "--oov".equals(args[i]) )
+				oov = args[i+1];
+			else if( "--subword-table".equals(args[i]) )
+				subwordTableFile = args[i+1];
+			else if( "--float".equals(args[i]) )
+				floatPrecision = "on".equals(args[i+1]);
+			else
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+		if(modelFile == null)
+			throw new IllegalArgumentException("--model is required");
+		Metrics.setEnabled(metrics);
+
+		long start = System.currentTimeMillis();
+		OovStrategy oovStrategy;
+		if(subwordTableFile != null) {
+			SubwordTable subwords = SubwordTable.open(new File(subwordTableFile), FeaturesExtractor.LAYER_SIZE);
+			oovStrategy = new MemoizedOovStrategy(subwords, MemoizedOovStrategy.DEFAULT_MAX_SIZE);
+		}
+		else
+			oovStrategy = OovStrategy.forName(oov, FeaturesExtractor.LAYER_SIZE);
+		// fails unless the model was trained with the same OOV strategy
+		ModelStore.StoredModel model = ModelStore.open(new File(modelFile), FeaturesExtractor.FEATURE_NAMES,
+				FeaturesExtractor.getFeatureSchema(oovStrategy));
+		Word2VecStore word2vecs = new Word2VecStore(new File(word2vecFile));
+		System.out.println("Loaded model and " + word2vecs.size() + " word2vecs in " + (System.currentTimeMillis()-start) + "ms.");
+
+		PairScorer scorer = new PairScorer(
+				model.getModel(), word2vecs, model.getLabelBorder(), extractionPermits, sentenceCacheSize);
+		scorer.setOovStrategy(oovStrategy);
+		scorer.setFloatPrecision(floatPrecision);
+		MicroBatcher batcher = batchSize > 1
+				? new MicroBatcher(scorer, batchSize, batchDelayMicros, extractionPermits)
+				: null;
+		ScoringServer server = new ScoringServer(
+				scorer, batcher, new InetSocketAddress(port), executionMode, workersCount, queueCapacity);
+		server.start();
+		System.out.println("Scoring on " + server.getAddress() + " with " + executionMode + " threads");
+	}
+}